@@ -0,0 +1,55 @@
+package Psh;
+
+import java.nio.ByteBuffer;
+
+/**
+ * hash(x, y, z) over an offset table kept in a ByteBuffer, as written by PSHTableIO: x,y,z triples of unsigned components
+ * of 1, 2 or 4 bytes each, reduced mod the hash table width of their axis.
+ */
+final class BufferLookup {
+
+    private BufferLookup() {}
+
+    //layout holds the per axis tables of PSHSlotLayout.axisTables(), null for row major slots
+    static int hash(ByteBuffer buffer, int offsetsStart, int offsetBytes, Vec3I hashTableDims, Vec3I offsetTableDims, int[][] layout, int x, int y, int z) {
+        Vec3I w = hashTableDims, ow = offsetTableDims;
+        int o = 3 * ((MathGeneral.mod(x, ow.x) * ow.y + MathGeneral.mod(y, ow.y)) * ow.z + MathGeneral.mod(z, ow.z));
+        int ox, oy, oz;
+        switch(offsetBytes) {
+            case 1:
+                ox = buffer.get(offsetsStart + o) & 0xFF;
+                oy = buffer.get(offsetsStart + o + 1) & 0xFF;
+                oz = buffer.get(offsetsStart + o + 2) & 0xFF;
+                break;
+            case 2:
+                ox = buffer.getChar(offsetsStart + 2 * o);
+                oy = buffer.getChar(offsetsStart + 2 * o + 2);
+                oz = buffer.getChar(offsetsStart + 2 * o + 4);
+                break;
+            default:
+                ox = buffer.getInt(offsetsStart + 4 * o);
+                oy = buffer.getInt(offsetsStart + 4 * o + 4);
+                oz = buffer.getInt(offsetsStart + 4 * o + 8);
+        }
+        int hx = MathGeneral.mod(MathGeneral.mod(x, w.x) + ox, w.x);
+        int hy = MathGeneral.mod(MathGeneral.mod(y, w.y) + oy, w.y);
+        int hz = MathGeneral.mod(MathGeneral.mod(z, w.z) + oz, w.z);
+        if(layout != null) {
+            return layout[0][hx] + layout[1][hy] + layout[2][hz];
+        }
+        return (hx * w.y + hy) * w.z + hz;
+    }
+
+    //writes the offsets of table into buffer at its position, in the layout hash() reads
+    static void putOffsets(ByteBuffer buffer, PSHOffsetTable table, int offsetBytes) {
+        int length = 3 * table.offsetTableSize();
+        for(int i = 0; i < length; i++) {
+            int component = table.offsetComponent(i);
+            switch(offsetBytes) {
+                case 1: buffer.put((byte)component); break;
+                case 2: buffer.putShort((short)component); break;
+                default: buffer.putInt(component);
+            }
+        }
+    }
+}
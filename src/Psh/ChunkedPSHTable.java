@@ -0,0 +1,679 @@
+package Psh;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Perfect spatial hashing for worlds too big or too changeable for one PSHOffsetTable: space is cut into cubic chunks of
+ * 2^chunkBits keys a side, every chunk that holds keys gets a small PSHOffsetTable of its own, and a top level PSHOffsetTable
+ * over the chunk coordinates finds the chunk of a key. A lookup is three reads more than a single table, the top level offset,
+ * the chunk and the chunk's offset.
+ *
+ * Edits only touch their chunk: add() and remove() mark it dirty and update() rebuilds the dirty chunks, so the cost of an
+ * edit is bounded by the chunk size instead of the world size. The top level is only rebuilt when chunks appear or empty out.
+ * Until update() lookups see the tables of the last update.
+ *
+ * With a storage directory chunks can be paged out with evict(), which writes the chunk's table with PSHTableIO and its
+ * keys next to it and drops both from memory. An evicted chunk is read back by load() or by the first lookup or edit that needs it,
+ * and by update() if it was evicted dirty.
+ *
+ * A chunk keeps its keys in a table sized to them and only switches to one bit per position of the chunk once that is no
+ * bigger, so a sparse world doesn't pay for the empty space of its chunks.
+ *
+ *  ChunkedPSHTable world = new ChunkedPSHTable(5, PSHOffsetTable.builder().seed(1), storage);
+ *  world.add(x, y, z); ... world.update();
+ *  long slot = world.hash(x, y, z); //chunk id in the high 32 bits, slot in that chunk's table in the low 32 bits, -1 for no chunk
+ *
+ * Not safe for use from several threads at once.
+ */
+public class ChunkedPSHTable {
+
+    //chunk sides from 2 to 128 keys
+    public static final int maxChunkBits = 7;
+
+    public static final class Chunk {
+        public final int id;
+        //chunk coordinates, key (x,y,z) is in the chunk at (x >> chunkBits, y >> chunkBits, z >> chunkBits)
+        public final int cx, cy, cz;
+        private final ChunkedPSHTable owner;
+        private Occupancy occupied; //positions of the keys in the chunk, null while evicted
+        private int keyCount;
+        private PSHOffsetTable table; //null until the first update and while evicted
+        private boolean dirty;
+        private boolean stored; //the files of the chunk hold its current table and keys
+        private long version;
+
+        private Chunk(ChunkedPSHTable owner, int id, int cx, int cy, int cz) {
+            this.owner = owner;
+            this.id = id;
+            this.cx = cx;
+            this.cy = cy;
+            this.cz = cz;
+            occupied = new Occupancy(1 << (3 * owner.chunkBits));
+        }
+
+        //the chunk's table as of the last update, read back from storage if the chunk was evicted
+        public PSHOffsetTable table() {
+            if(table == null && stored) {
+                owner.loadUnchecked(this);
+            }
+            return table;
+        }
+        //slot of (x,y,z) in table(), the key has to be in this chunk
+        public int slot(int x, int y, int z) {
+            return table().hash(x, y, z);
+        }
+        public int keyCount() {
+            return keyCount;
+        }
+        public boolean isDirty() {
+            return dirty;
+        }
+        public boolean isLoaded() {
+            return occupied != null;
+        }
+        //number of times the table was rebuilt, every key of the chunk may have a new slot after a rebuild
+        public long version() {
+            return version;
+        }
+
+        @Override
+        public String toString() {
+            return "chunk " + id + " at (" + cx + ", " + cy + ", " + cz + ") with " + keyCount + " keys" + (isLoaded() ? "" : ", evicted");
+        }
+    }
+
+    private final int chunkBits;
+    private final int side;
+    private final int mask;
+    private final PSHOffsetTable.Builder builder;
+    private final Path storage;
+
+    private final ArrayList<Chunk> chunks = new ArrayList<>();
+    //ids of dropped chunks, handed out again before chunks grows
+    private int[] freeIds = new int[8];
+    private int freeIdCount;
+    private final ArrayList<Chunk> dirtyChunks = new ArrayList<>();
+    //chunks by coordinates, an open addressing table of chunk ids + 1 that is always up to date, unlike the top level
+    private int[] chunkIndex = new int[16];
+    private int chunkCount;
+
+    //the perfect hash over the chunk coordinates of the last update and the chunk of each of its slots
+    private PSHOffsetTable top;
+    private Chunk[] topSlots = new Chunk[0];
+    private boolean topDirty;
+
+    public ChunkedPSHTable(int chunkBits) {
+        this(chunkBits, PSHOffsetTable.builder(), null);
+    }
+
+    //Chunks of 2^chunkBits keys a side, every table is built with builder, which shouldn't be changed afterwards.
+    //storage is the directory evicted chunks are written to, null if chunks are never evicted.
+    public ChunkedPSHTable(int chunkBits, PSHOffsetTable.Builder builder, Path storage) {
+        if(chunkBits < 1 || chunkBits > maxChunkBits) {
+            throw new IllegalArgumentException("chunk bits have to be in [1, " + maxChunkBits + "] but was " + chunkBits);
+        }
+        this.chunkBits = chunkBits;
+        side = 1 << chunkBits;
+        mask = side - 1;
+        this.builder = builder;
+        this.storage = storage;
+    }
+
+    //adds all keys and builds every chunk
+    public ChunkedPSHTable(int chunkBits, PSHOffsetTable.Builder builder, Path storage, List<Vec3I> keys) {
+        this(chunkBits, builder, storage);
+        for(int i = 0; i < keys.size(); i++) {
+            Vec3I key = keys.get(i);
+            add(key.x, key.y, key.z);
+        }
+        update();
+    }
+
+    //adds (x,y,z), returns false if it was there already. The key gets a slot with the next update().
+    public boolean add(int x, int y, int z) {
+        Chunk chunk = findChunk(x >> chunkBits, y >> chunkBits, z >> chunkBits);
+        if(chunk == null) {
+            chunk = createChunk(x >> chunkBits, y >> chunkBits, z >> chunkBits);
+        }
+        ensureLoaded(chunk);
+        if(!chunk.occupied.add(position(x, y, z))) {
+            return false;
+        }
+        chunk.keyCount++;
+        markDirty(chunk);
+        return true;
+    }
+
+    //removes (x,y,z), returns false if it wasn't there. The key keeps its slot until the next update().
+    public boolean remove(int x, int y, int z) {
+        Chunk chunk = findChunk(x >> chunkBits, y >> chunkBits, z >> chunkBits);
+        if(chunk == null) {
+            return false;
+        }
+        ensureLoaded(chunk);
+        if(!chunk.occupied.remove(position(x, y, z))) {
+            return false;
+        }
+        chunk.keyCount--;
+        markDirty(chunk);
+        return true;
+    }
+
+    //true if (x,y,z) was added and not removed since, whether or not it was updated yet
+    public boolean contains(int x, int y, int z) {
+        Chunk chunk = findChunk(x >> chunkBits, y >> chunkBits, z >> chunkBits);
+        if(chunk == null) {
+            return false;
+        }
+        ensureLoaded(chunk);
+        return chunk.occupied.contains(position(x, y, z));
+    }
+
+    //Rebuilds the tables of the dirty chunks, drops chunks that emptied and rebuilds the top level if the chunks changed.
+    //Dirty chunks that were evicted are read back for their keys. Returns the number of chunk tables rebuilt.
+    public int update() {
+        int rebuilt = 0;
+        for(Chunk chunk : dirtyChunks) {
+            if(chunk.keyCount == 0) {
+                dropChunk(chunk);
+            }
+            else {
+                ensureLoaded(chunk);
+                rebuildChunk(chunk);
+                rebuilt++;
+            }
+        }
+        dirtyChunks.clear();
+        if(topDirty) {
+            rebuildTop();
+        }
+        return rebuilt;
+    }
+
+    //Chunk id in the high 32 bits and slot in the chunk's table in the low 32 bits as of the last update, -1 if no chunk covers
+    //(x,y,z). Like PSHOffsetTable.hash() it doesn't check that (x,y,z) is a key.
+    public long hash(int x, int y, int z) {
+        Chunk chunk = chunk(x, y, z);
+        if(chunk == null) {
+            return -1;
+        }
+        return (long)chunk.id << 32 | chunk.slot(x, y, z);
+    }
+
+    //the chunk covering (x,y,z) as of the last update, null if there is none
+    public Chunk chunk(int x, int y, int z) {
+        if(top == null) {
+            return null;
+        }
+        int cx = x >> chunkBits, cy = y >> chunkBits, cz = z >> chunkBits;
+        Chunk chunk = topSlots[top.hash(cx, cy, cz)];
+        if(chunk == null || chunk.cx != cx || chunk.cy != cy || chunk.cz != cz) {
+            return null;
+        }
+        return chunk;
+    }
+
+    //the chunk with id, null if there is none. The id of a dropped chunk goes to the next chunk created.
+    public Chunk chunk(int id) {
+        return id >= 0 && id < chunks.size() ? chunks.get(id) : null;
+    }
+
+    //the chunks that hold keys, evicted ones included
+    public List<Chunk> chunks() {
+        ArrayList<Chunk> live = new ArrayList<>(chunkCount);
+        for(Chunk chunk : chunks) {
+            if(chunk != null) {
+                live.add(chunk);
+            }
+        }
+        return Collections.unmodifiableList(live);
+    }
+
+    public int chunkCount() {
+        return chunkCount;
+    }
+    public int chunkBits() {
+        return chunkBits;
+    }
+
+    //Writes the chunk's table and keys to the storage directory and drops them from memory. A dirty chunk is written with the
+    //table of the last update, which lookups keep seeing until update() rebuilds it. One whose keys were all removed is dropped
+    //instead, lookups no longer find it. A chunk dropped before is left alone.
+    public void evict(Chunk chunk) throws IOException {
+        if(storage == null) {
+            throw new IllegalStateException("chunks can only be evicted with a storage directory");
+        }
+        if(!chunk.isLoaded() || chunk(chunk.id) != chunk) {
+            return;
+        }
+        if(chunk.keyCount == 0) {
+            dirtyChunks.remove(chunk);
+            dropChunk(chunk);
+            return;
+        }
+        if(!chunk.stored) {
+            Files.createDirectories(storage);
+            //a chunk that was never updated has no table yet
+            if(chunk.table != null) {
+                PSHTableIO.write(chunk.table, tableFile(chunk));
+            }
+            writeKeys(chunk.occupied, keysFile(chunk));
+            chunk.stored = true;
+        }
+        chunk.table = null;
+        chunk.occupied = null;
+    }
+
+    //reads an evicted chunk back, lookups and edits do this on their own
+    public void load(Chunk chunk) throws IOException {
+        if(chunk.isLoaded()) {
+            return;
+        }
+        chunk.table = chunk.version == 0 ? null : PSHTableIO.read(tableFile(chunk));
+        chunk.occupied = readKeys(1 << (3 * chunkBits), keysFile(chunk));
+    }
+
+    private void loadUnchecked(Chunk chunk) {
+        try {
+            load(chunk);
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException("could not load " + chunk, e);
+        }
+    }
+    private void ensureLoaded(Chunk chunk) {
+        if(!chunk.isLoaded()) {
+            loadUnchecked(chunk);
+        }
+    }
+
+    private void markDirty(Chunk chunk) {
+        if(!chunk.dirty) {
+            chunk.dirty = true;
+            dirtyChunks.add(chunk);
+        }
+        chunk.stored = false;
+    }
+
+    private void rebuildChunk(Chunk chunk) {
+        PackedKeys keys = new PackedKeys(chunk.keyCount);
+        int baseX = chunk.cx << chunkBits, baseY = chunk.cy << chunkBits, baseZ = chunk.cz << chunkBits;
+        for(int p : chunk.occupied.sorted()) {
+            keys.add(baseX | (p >> (2 * chunkBits)), baseY | ((p >> chunkBits) & mask), baseZ | (p & mask));
+        }
+        //built from keys of its own, keys the caller may have left on the builder stay out of the chunk
+        chunk.table = builder.build(keys);
+        chunk.dirty = false;
+        chunk.stored = false;
+        chunk.version++;
+    }
+
+    private void rebuildTop() {
+        //update() has rebuilt every chunk left, so all of them have a table or stored files
+        topDirty = false;
+        if(chunkCount == 0) {
+            top = null;
+            topSlots = new Chunk[0];
+            return;
+        }
+        PackedKeys coordinates = new PackedKeys(chunkCount);
+        for(Chunk chunk : chunks) {
+            if(chunk != null) {
+                coordinates.add(chunk.cx, chunk.cy, chunk.cz);
+            }
+        }
+        top = builder.build(coordinates);
+        topSlots = new Chunk[top.hashTableSize()];
+        for(Chunk chunk : chunks) {
+            if(chunk != null) {
+                topSlots[top.hash(chunk.cx, chunk.cy, chunk.cz)] = chunk;
+            }
+        }
+    }
+
+    private Chunk createChunk(int cx, int cy, int cz) {
+        Chunk chunk;
+        if(freeIdCount > 0) {
+            chunk = new Chunk(this, freeIds[--freeIdCount], cx, cy, cz);
+            chunks.set(chunk.id, chunk);
+        }
+        else {
+            chunk = new Chunk(this, chunks.size(), cx, cy, cz);
+            chunks.add(chunk);
+        }
+        chunkCount++;
+        if(2 * chunkCount > chunkIndex.length) {
+            int[] old = chunkIndex;
+            chunkIndex = new int[2 * old.length];
+            for(int entry : old) {
+                if(entry != 0) {
+                    Chunk moved = chunks.get(entry - 1);
+                    chunkIndex[emptyIndexEntry(moved.cx, moved.cy, moved.cz)] = entry;
+                }
+            }
+        }
+        chunkIndex[emptyIndexEntry(cx, cy, cz)] = chunk.id + 1;
+        topDirty = true;
+        return chunk;
+    }
+
+    private void dropChunk(Chunk chunk) {
+        removeIndexEntry(indexEntry(chunk.cx, chunk.cy, chunk.cz));
+        chunks.set(chunk.id, null);
+        if(freeIdCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, 2 * freeIds.length);
+        }
+        freeIds[freeIdCount++] = chunk.id;
+        chunkCount--;
+        chunk.dirty = false;
+        //the top level keeps the chunk until it is rebuilt, lookups mustn't find it there meanwhile
+        if(top != null) {
+            int slot = top.hash(chunk.cx, chunk.cy, chunk.cz);
+            if(topSlots[slot] == chunk) {
+                topSlots[slot] = null;
+            }
+        }
+        if(storage != null) {
+            //files of the chunk may be left from an eviction before its last edits
+            try {
+                Files.deleteIfExists(tableFile(chunk));
+                Files.deleteIfExists(keysFile(chunk));
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException("could not delete the files of " + chunk, e);
+            }
+        }
+        topDirty = true;
+    }
+
+    private Chunk findChunk(int cx, int cy, int cz) {
+        int i = indexEntry(cx, cy, cz);
+        return i < 0 ? null : chunks.get(chunkIndex[i] - 1);
+    }
+    //position of the chunk at (cx,cy,cz) in chunkIndex, -1 if there is none
+    private int indexEntry(int cx, int cy, int cz) {
+        int m = chunkIndex.length - 1;
+        for(int i = mix(cx, cy, cz) & m; chunkIndex[i] != 0; i = (i + 1) & m) {
+            Chunk chunk = chunks.get(chunkIndex[i] - 1);
+            if(chunk.cx == cx && chunk.cy == cy && chunk.cz == cz) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    //Empties entry i of chunkIndex and moves later entries of the same probe run back into the hole, so lookups never
+    //stop early at it and no tombstones are needed.
+    private void removeIndexEntry(int i) {
+        int m = chunkIndex.length - 1;
+        chunkIndex[i] = 0;
+        for(int j = (i + 1) & m; chunkIndex[j] != 0; j = (j + 1) & m) {
+            Chunk chunk = chunks.get(chunkIndex[j] - 1);
+            int home = mix(chunk.cx, chunk.cy, chunk.cz) & m;
+            //entry j may move to i if its home isn't between the hole and j
+            if(((j - home) & m) >= ((j - i) & m)) {
+                chunkIndex[i] = chunkIndex[j];
+                chunkIndex[j] = 0;
+                i = j;
+            }
+        }
+    }
+    private int emptyIndexEntry(int cx, int cy, int cz) {
+        int m = chunkIndex.length - 1;
+        int i = mix(cx, cy, cz) & m;
+        while(chunkIndex[i] != 0) {
+            i = (i + 1) & m;
+        }
+        return i;
+    }
+    private static int mix(int x, int y, int z) {
+        int h = x * 0x9E3779B1 + y * 0x85EBCA77 + z * 0xC2B2AE3D;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        return h ^ (h >>> 13);
+    }
+
+    //position of (x,y,z) within its chunk
+    private int position(int x, int y, int z) {
+        return (((x & mask) << chunkBits | (y & mask)) << chunkBits) | (z & mask);
+    }
+
+    private Path tableFile(Chunk chunk) {
+        return storage.resolve("chunk_" + chunk.cx + "_" + chunk.cy + "_" + chunk.cz + ".psht");
+    }
+    private Path keysFile(Chunk chunk) {
+        return storage.resolve("chunk_" + chunk.cx + "_" + chunk.cy + "_" + chunk.cz + ".keys");
+    }
+
+    //The keys of a chunk as little endian ints: the number of positions followed by them, or -1 followed by the occupancy
+    //bits as longs for a chunk that keeps one bit per position.
+    private static void writeKeys(Occupancy occupied, Path file) throws IOException {
+        ByteBuffer buffer;
+        if(occupied.bits != null) {
+            long[] words = occupied.bits.words;
+            buffer = ByteBuffer.allocate(4 + 8 * words.length).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(-1);
+            for(long word : words) {
+                buffer.putLong(word);
+            }
+        }
+        else {
+            int[] positions = occupied.sorted();
+            buffer = ByteBuffer.allocate(4 + 4 * positions.length).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(positions.length);
+            for(int position : positions) {
+                buffer.putInt(position);
+            }
+        }
+        buffer.flip();
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+    private static Occupancy readKeys(int positions, Path file) throws IOException {
+        ByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size < 4 || size > 4 + positions / 8 + 8) {
+                throw new IOException(file + " isn't a file of chunk keys, it has " + size + " bytes");
+            }
+            buffer = ByteBuffer.allocate((int)size).order(ByteOrder.LITTLE_ENDIAN);
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer) < 0) {
+                    throw new IOException("unexpected end of " + file);
+                }
+            }
+        }
+        buffer.flip();
+        int count = buffer.getInt();
+        Occupancy occupied = new Occupancy(positions);
+        if(count == -1) {
+            SlotBitSet bits = new SlotBitSet(positions);
+            if(buffer.remaining() != 8 * bits.words.length) {
+                throw new IOException(file + " doesn't hold the bits of a chunk");
+            }
+            buffer.asLongBuffer().get(bits.words);
+            occupied.setBits(bits);
+        }
+        else {
+            if(count < 0 || buffer.remaining() != 4 * count) {
+                throw new IOException(file + " doesn't hold " + count + " positions");
+            }
+            for(int i = 0; i < count; i++) {
+                int position = buffer.getInt();
+                if(position < 0 || position >= positions) {
+                    throw new IOException(file + " holds position " + position + " outside of its chunk");
+                }
+                occupied.add(position);
+            }
+        }
+        return occupied;
+    }
+
+    //The positions of the keys of a chunk. While the chunk is sparse they are kept in an open addressing table of positions + 1
+    //with room for twice as many, once that table would be as big as one bit per position of the chunk it switches to bits,
+    //and back when the keys thin out again.
+    private static final class Occupancy {
+        private static final int minEntries = 8;
+        private final int positions;
+        private int[] entries; //null while bits are used
+        private SlotBitSet bits;
+        private int count;
+
+        Occupancy(int positions) {
+            this.positions = positions;
+            if(32L * minEntries >= positions) {
+                bits = new SlotBitSet(positions);
+            }
+            else {
+                entries = new int[minEntries];
+            }
+        }
+
+        boolean contains(int position) {
+            return bits != null ? bits.get(position) : entry(position) >= 0;
+        }
+        //false if position was there already
+        boolean add(int position) {
+            if(bits != null) {
+                if(bits.get(position)) {
+                    return false;
+                }
+                bits.set(position);
+                count++;
+                return true;
+            }
+            int m = entries.length - 1;
+            int i = mix(position) & m;
+            for(; entries[i] != 0; i = (i + 1) & m) {
+                if(entries[i] == position + 1) {
+                    return false;
+                }
+            }
+            entries[i] = position + 1;
+            count++;
+            if(2 * count > entries.length) {
+                resize(2 * entries.length);
+            }
+            return true;
+        }
+        //false if position wasn't there
+        boolean remove(int position) {
+            if(bits != null) {
+                if(!bits.get(position)) {
+                    return false;
+                }
+                bits.clear(position);
+                count--;
+                //back to a table with room for 4 times the keys once that is at most half the bits, so it doesn't switch at once
+                int length = Math.max(minEntries, Integer.highestOneBit(Math.max(1, 4 * count - 1)) << 1);
+                if(64L * length <= positions) {
+                    int[] kept = sorted();
+                    bits = null;
+                    entries = new int[length];
+                    count = 0;
+                    for(int p : kept) {
+                        add(p);
+                    }
+                }
+                return true;
+            }
+            int i = entry(position);
+            if(i < 0) {
+                return false;
+            }
+            //the same backward shift deletion as the chunk index
+            int m = entries.length - 1;
+            entries[i] = 0;
+            for(int j = (i + 1) & m; entries[j] != 0; j = (j + 1) & m) {
+                int home = mix(entries[j] - 1) & m;
+                if(((j - home) & m) >= ((j - i) & m)) {
+                    entries[i] = entries[j];
+                    entries[j] = 0;
+                    i = j;
+                }
+            }
+            count--;
+            if(entries.length > minEntries && 8 * count < entries.length) {
+                resize(entries.length / 2);
+            }
+            return true;
+        }
+        //the positions in increasing order, so a chunk's table doesn't depend on the order of its edits
+        int[] sorted() {
+            int[] sorted = new int[count];
+            int k = 0;
+            if(bits != null) {
+                for(int p = bits.nextSet(0); p >= 0; p = bits.nextSet(p + 1)) {
+                    sorted[k++] = p;
+                }
+                return sorted;
+            }
+            for(int entry : entries) {
+                if(entry != 0) {
+                    sorted[k++] = entry - 1;
+                }
+            }
+            Arrays.sort(sorted);
+            return sorted;
+        }
+        void setBits(SlotBitSet bits) {
+            this.bits = bits;
+            entries = null;
+            count = 0;
+            for(int p = bits.nextSet(0); p >= 0; p = bits.nextSet(p + 1)) {
+                count++;
+            }
+        }
+
+        private int entry(int position) {
+            int m = entries.length - 1;
+            for(int i = mix(position) & m; entries[i] != 0; i = (i + 1) & m) {
+                if(entries[i] == position + 1) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        private void resize(int length) {
+            int[] old = entries;
+            if(32L * length >= positions) {
+                bits = new SlotBitSet(positions);
+                entries = null;
+                for(int entry : old) {
+                    if(entry != 0) {
+                        bits.set(entry - 1);
+                    }
+                }
+                return;
+            }
+            entries = new int[length];
+            int m = length - 1;
+            for(int entry : old) {
+                if(entry != 0) {
+                    int i = mix(entry - 1) & m;
+                    while(entries[i] != 0) {
+                        i = (i + 1) & m;
+                    }
+                    entries[i] = entry;
+                }
+            }
+        }
+        private static int mix(int position) {
+            int h = position * 0x9E3779B1;
+            return h ^ (h >>> 16);
+        }
+    }
+}
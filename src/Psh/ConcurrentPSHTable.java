@@ -0,0 +1,70 @@
+package Psh;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A PSHOffsetTable that can be rebuilt while other threads keep hashing with it.
+ * Every update builds a whole new table off to the side and then publishes it with one atomic swap, readers never block
+ * and always see either the old table or the new one, never a mix of the two.
+ * A published table is a snapshot that is never changed again, a reader that needs several lookups and the widths to agree
+ * should take snapshot() once and use it for all of them. Old snapshots are garbage collected once no reader holds them.
+ *
+ * Don't call updateOffsets(), insert() or remove() on a snapshot, that would change it under the other readers.
+ */
+public class ConcurrentPSHTable {
+
+    private final PSHOffsetTable.Builder builder;
+    private final AtomicReference<PSHOffsetTable> current;
+    private final Object updateLock = new Object();
+    //only written under updateLock, after the table it counts is in current, so readers don't wait for a build to see it
+    private volatile long version;
+
+    public ConcurrentPSHTable(ArrayList<Vec3I> elements) {
+        this(PSHOffsetTable.builder(), elements);
+    }
+
+    //every table is built with builder, which shouldn't be changed afterwards
+    public ConcurrentPSHTable(PSHOffsetTable.Builder builder, ArrayList<Vec3I> elements) {
+        this.builder = builder;
+        current = new AtomicReference<>(builder.build(elements));
+    }
+
+    //the table readers currently see
+    public PSHOffsetTable snapshot() {
+        return current.get();
+    }
+
+    public int hash(int x, int y, int z) {
+        return current.get().hash(x, y, z);
+    }
+    public int hashFast(int x, int y, int z) {
+        return current.get().hashFast(x, y, z);
+    }
+    public Vec3I hash(Vec3I key) {
+        return current.get().hash(key);
+    }
+
+    //number of tables published since construction
+    public long version() {
+        return version;
+    }
+
+    //Builds a table for elements on the calling thread and publishes it. Lookups go on against the previous table meanwhile.
+    //Concurrent updates are built one at a time and published in the order they got the lock. Returns the new snapshot.
+    public PSHOffsetTable update(ArrayList<Vec3I> elements) {
+        synchronized(updateLock) {
+            PSHOffsetTable table = builder.build(elements);
+            current.set(table);
+            version++;
+            return table;
+        }
+    }
+
+    //update() on executor, elements must not be changed until the returned future completes
+    public CompletableFuture<PSHOffsetTable> updateAsync(ArrayList<Vec3I> elements, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> update(elements), executor);
+    }
+}
@@ -0,0 +1,32 @@
+package Psh;
+
+/**
+ * a mod d for a fixed divisor without a division, after D. Lemire, O. Kaser, N. Kurz, "Faster Remainder by Direct Computation".
+ * A 64 bit reciprocal of d is computed once, each mod is then two multiplications.
+ * The result is the same as MathGeneral.mod(a, d) and Vec3I.mod for every int a, including negative ones.
+ */
+public final class FastMod {
+
+    public final int divisor;
+    private final long reciprocal; //ceil(2^64 / divisor), wraps to 0 for a divisor of 1 which still gives the right answer
+    private final int wrapRemainder; //2^32 mod divisor, corrects the remainder of a negative a read as unsigned
+
+    public FastMod(int divisor) {
+        if(divisor < 1) {
+            throw new IllegalArgumentException("divisor must be positive but was " + divisor);
+        }
+        this.divisor = divisor;
+        reciprocal = Long.divideUnsigned(-1L, divisor) + 1;
+        wrapRemainder = (int)((1L << 32) % divisor);
+    }
+
+    //a mod divisor in [0, divisor)
+    public int mod(int a) {
+        long low = reciprocal * (a & 0xFFFFFFFFL);
+        //high 64 bits of the 128 bit product low * divisor
+        long r = ((low >>> 32) * divisor + (((low & 0xFFFFFFFFL) * divisor) >>> 32)) >>> 32;
+        //a negative a was read as a + 2^32
+        int m = (int)r - ((a >> 31) & wrapRemainder);
+        return m + ((m >> 31) & divisor);
+    }
+}
@@ -1,50 +1,92 @@
 package Psh;
 
+import java.io.IOException;
 import java.nio.IntBuffer;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Random;
 
 public class Main {
 
-    //this contains a stress test of of the PSHOffsetTable
-    public static void main(String[] args) {
-        Random random = new Random(System.currentTimeMillis());
+    //this contains a stress test of of the PSHOffsetTable, pass a seed to repeat a run
+    public static void main(String[] args) throws IOException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.currentTimeMillis();
+        System.out.println("seed " + seed);
+        Random random = new Random(seed);
         int n = 64*64*64;
         int testSize = n;
 
         //generate random spatial data list for testing only
         ArrayList<Vec3I> elelist = new ArrayList<>();
+        SpatialKeySet present = new SpatialKeySet(n);
         for(int i = 0; i < n; i++) {
             Vec3I ele = new Vec3I(random.nextInt(56), random.nextInt(56), random.nextInt(56)); //56 is just arbitrary, arbitrary limit on spatial problem space
-            if(!elelist.contains(ele)) {
+            if(present.add(ele)) {
                 elelist.add(ele);
             }
         }
 
         PSHOffsetTable table;
-        table = new PSHOffsetTable(elelist);
+        table = PSHOffsetTable.builder().seed(seed).build(elelist);
         for(int i = 0; i < 10; i++) {
             Long timestart = System.currentTimeMillis();
             Vec3I ele = new Vec3I(random.nextInt(56), random.nextInt(56), random.nextInt(56)); //56 is just arbitrary, arbitrary limit on spatial problem space
-            if(!elelist.contains(ele)) {
+            if(present.add(ele)) {
                 elelist.add(ele);
             }
             table.updateOffsets(elelist);
             System.out.println("Time to do an update of offsettable: " + (System.currentTimeMillis() - timestart));
         }
 
-        //check for collisions, there should be none
-        ArrayList<Vec3I> hashCheck = new ArrayList<>();
+        //the same kind of edits done incrementally, only the bucket of the new element is touched
+        PSHOffsetTable incrementalTable = PSHOffsetTable.builder().incremental(true).seed(seed).build(elelist);
+        ArrayList<Vec3I> incrementalList = new ArrayList<>(elelist);
+        for(int i = 0; i < 10; i++) {
+            long timestart = System.nanoTime();
+            Vec3I ele = new Vec3I(random.nextInt(56), random.nextInt(56), random.nextInt(56));
+            PSHUpdateResult result = incrementalTable.insert(ele);
+            if(present.add(ele)) {
+                incrementalList.add(ele);
+            }
+            System.out.println("Time to do an incremental insert in microseconds: " + (System.nanoTime() - timestart) / 1000 + ", slots moved: " + (result.rebuilt ? "all" : String.valueOf(result.movedCount())));
+        }
+
+        hashCheck(table, elelist);
+        hashCheck(incrementalTable, incrementalList);
+        //a chunk whose keys were all removed and that was then evicted mustn't be found any more
+        ChunkedPSHTable world = new ChunkedPSHTable(3, PSHOffsetTable.builder().seed(seed), Files.createTempDirectory("psh"));
+        world.add(1, 1, 1);
+        world.add(100, 1, 1);
+        world.update();
+        world.remove(1, 1, 1);
+        world.evict(world.chunk(1, 1, 1));
+        world.update();
+        if(world.hash(1, 1, 1) != -1 || world.hash(100, 1, 1) == -1) {
+            System.out.println("if this prints an emptied chunk survived eviction which means there's a bug");
+        }
+        System.out.println("stress test fin");
+        }
+
+    //check for collisions, there should be none
+    private static void hashCheck(PSHOffsetTable table, ArrayList<Vec3I> elelist) {
+        IntBuffer keys = IntBuffer.allocate(3 * elelist.size());
         for(int i = 0; i < elelist.size(); i++) {
-            Vec3I hash = table.hash(elelist.get(i));
-            if(!hashCheck.contains(hash)) {
-                hashCheck.add(hash);
+            Vec3I ele = elelist.get(i);
+            keys.put(ele.x).put(ele.y).put(ele.z);
+        }
+        keys.flip();
+        int[] hashes = new int[elelist.size()];
+        table.hash(keys, hashes, 0);
+        boolean[] hashCheck = new boolean[table.hashTableSize()];
+        for(int i = 0; i < hashes.length; i++) {
+            int hash = hashes[i];
+            if(!hashCheck[hash]) {
+                hashCheck[hash] = true;
             }
             else {
                 System.out.println("if this prints there is a hash collision which means there's a bug");
             }
 
         }
-        System.out.println("stress test fin");
-        }
+    }
 }
@@ -0,0 +1,92 @@
+package Psh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read only lookups straight from a file written by PSHTableIO, memory mapped instead of loaded onto the heap.
+ * Opening is close to free whatever the table size, and processes mapping the same file share one page cached copy.
+ * hash(x, y, z) gives the same slot as the PSHOffsetTable that was saved.
+ */
+public final class MappedPSHTable {
+
+    private final ByteBuffer buffer;
+    private final int offsetBytes;
+    private final int valueType;
+    private final int valuesStart;
+    private final int offsetsStart;
+    public final int hashTableWidth;
+    public final int offsetTableWidth;
+    //per axis widths, see PSHOffsetTable.hashTableDims
+    public final Vec3I hashTableDims;
+    public final Vec3I offsetTableDims;
+    public final int elementCount;
+    public final PSHSlotLayout slotLayout;
+    private final int[][] layout;
+    private final int hashTableSize;
+
+    private MappedPSHTable(ByteBuffer buffer) throws IOException {
+        PSHTableIO.Header header = new PSHTableIO.Header(buffer);
+        this.buffer = buffer;
+        offsetBytes = header.offsetBytes;
+        valueType = header.valueType;
+        valuesStart = (int)header.valuesStart();
+        offsetsStart = header.offsetsStart;
+        hashTableDims = header.hashTableDims;
+        offsetTableDims = header.offsetTableDims;
+        hashTableWidth = Math.max(hashTableDims.x, Math.max(hashTableDims.y, hashTableDims.z));
+        offsetTableWidth = Math.max(offsetTableDims.x, Math.max(offsetTableDims.y, offsetTableDims.z));
+        elementCount = header.elementCount;
+        slotLayout = header.slotLayout;
+        layout = slotLayout.axisTables(hashTableDims);
+        hashTableSize = header.hashTableSize();
+    }
+
+    public static MappedPSHTable open(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too big to be mapped as one table");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            return new MappedPSHTable(mapped);
+        }
+    }
+
+    //linear index of the hash of (x,y,z), same as PSHOffsetTable.hash(x, y, z)
+    public int hash(int x, int y, int z) {
+        return BufferLookup.hash(buffer, offsetsStart, offsetBytes, hashTableDims, offsetTableDims, layout, x, y, z);
+    }
+
+    public int hashTableSize() {
+        return hashTableSize;
+    }
+
+    public boolean hasValues() {
+        return valueType != PSHTableIO.noValues;
+    }
+
+    public int intValue(int slot) {
+        checkValues(PSHTableIO.intValues);
+        return buffer.getInt(valuesStart + 4 * slot);
+    }
+    public float floatValue(int slot) {
+        checkValues(PSHTableIO.floatValues);
+        return buffer.getFloat(valuesStart + 4 * slot);
+    }
+    public long longValue(int slot) {
+        checkValues(PSHTableIO.longValues);
+        return buffer.getLong(valuesStart + 8 * slot);
+    }
+
+    private void checkValues(int type) {
+        if(valueType != type) {
+            throw new IllegalStateException("table file holds value type " + valueType + ", not " + type);
+        }
+    }
+}
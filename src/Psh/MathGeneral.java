@@ -9,6 +9,11 @@ public class MathGeneral {
         if(a == 0 || b == 0) return a+b; // base case
         return gcd(b,a%b);
     }
+    //same result as Vec3I.mod per component, always in [0, m)
+    public static int mod(int a, int m) {
+        int r = a % m;
+        return r < 0 ? r + m : r;
+    }
 
     public static void quicksort(int[] array, int start, int end) {
         int i = start;
@@ -0,0 +1,133 @@
+package Psh;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A PSHOffsetTable and an optional value per hash table slot kept in direct ByteBuffers, outside the Java heap, so very
+ * large scenes don't grow the heap the garbage collector has to walk.
+ * Offsets are stored like in the paper with the smallest unsigned width that holds a component, a byte per component while
+ * hashTableWidth is at most 256 and a short up to 65536. hash(x, y, z) gives the same slot as the PSHOffsetTable it was made from.
+ *
+ * The buffers belong to this object: close() drops them and any use after that throws an IllegalStateException.
+ * close() doesn't free the direct memory, Java has no portable way to do that. The memory goes back to the system only
+ * when the garbage collector collects the dropped buffers, which a heap with little garbage may not do for a long time,
+ * so a program that opens and closes many big tables may need -XX:MaxDirectMemorySize headroom.
+ */
+public final class OffHeapPSHTable implements Closeable {
+
+    //values are split over buffers of 2^valuePageShift slots so a table can hold more than 2GB of values
+    private static final int valuePageShift = 26;
+    private static final int valuePageMask = (1 << valuePageShift) - 1;
+
+    public final int hashTableWidth;
+    public final int offsetTableWidth;
+    //per axis widths, see PSHOffsetTable.hashTableDims
+    public final Vec3I hashTableDims;
+    public final Vec3I offsetTableDims;
+    public final PSHSlotLayout slotLayout;
+    private final int[][] layout;
+    private final int hashTableSize;
+    private final int offsetBytes;
+    private final int valueBytes;
+    private ByteBuffer offsets;
+    private ByteBuffer[] valuePages;
+
+    //copies the offsets of table off heap, valueBytes is 0 for no values, 4 for int or float values, 8 for long values
+    public OffHeapPSHTable(PSHOffsetTable table, int valueBytes) {
+        if(valueBytes != 0 && valueBytes != 4 && valueBytes != 8) {
+            throw new IllegalArgumentException("valueBytes has to be 0, 4 or 8 but was " + valueBytes);
+        }
+        hashTableWidth = table.hashTableWidth;
+        offsetTableWidth = table.offsetTableWidth;
+        hashTableDims = new Vec3I(table.hashTableDims);
+        offsetTableDims = new Vec3I(table.offsetTableDims);
+        slotLayout = table.getSlotLayout();
+        layout = slotLayout.axisTables(hashTableDims);
+        hashTableSize = table.hashTableSize();
+        offsetBytes = PSHTableIO.offsetBytesFor(hashTableWidth);
+        this.valueBytes = valueBytes;
+
+        long offsetBufferBytes = 3L * table.offsetTableSize() * offsetBytes;
+        if(offsetBufferBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("offset table is too big for one buffer, " + offsetBufferBytes + " bytes");
+        }
+        offsets = ByteBuffer.allocateDirect((int)offsetBufferBytes).order(ByteOrder.nativeOrder());
+        BufferLookup.putOffsets(offsets, table, offsetBytes);
+        offsets.clear();
+
+        int slots = table.hashTableSize();
+        int pages = valueBytes == 0 ? 0 : ((slots - 1) >>> valuePageShift) + 1;
+        valuePages = new ByteBuffer[pages];
+        for(int i = 0; i < pages; i++) {
+            int pageSlots = Math.min(slots - (i << valuePageShift), 1 << valuePageShift);
+            valuePages[i] = ByteBuffer.allocateDirect(pageSlots * valueBytes).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    //linear index of the hash of (x,y,z), same as PSHOffsetTable.hash(x, y, z)
+    public int hash(int x, int y, int z) {
+        return BufferLookup.hash(offsets(), 0, offsetBytes, hashTableDims, offsetTableDims, layout, x, y, z);
+    }
+
+    public int hashTableSize() {
+        return hashTableSize;
+    }
+
+    public int getInt(int slot) {
+        return page(slot, 4).getInt((slot & valuePageMask) << 2);
+    }
+    public void putInt(int slot, int value) {
+        page(slot, 4).putInt((slot & valuePageMask) << 2, value);
+    }
+    public float getFloat(int slot) {
+        return page(slot, 4).getFloat((slot & valuePageMask) << 2);
+    }
+    public void putFloat(int slot, float value) {
+        page(slot, 4).putFloat((slot & valuePageMask) << 2, value);
+    }
+    public long getLong(int slot) {
+        return page(slot, 8).getLong((slot & valuePageMask) << 3);
+    }
+    public void putLong(int slot, long value) {
+        page(slot, 8).putLong((slot & valuePageMask) << 3, value);
+    }
+
+    //bytes of the buffers this table holds outside the heap, 0 once it is closed even though the buffers may not be collected yet
+    public long offHeapBytes() {
+        if(isClosed()) {
+            return 0;
+        }
+        return (long)offsetTableDims.x * offsetTableDims.y * offsetTableDims.z * 3 * offsetBytes + (long)hashTableSize() * valueBytes;
+    }
+
+    public boolean isClosed() {
+        return offsets == null;
+    }
+
+    @Override
+    public void close() {
+        offsets = null;
+        valuePages = null;
+    }
+
+    private ByteBuffer offsets() {
+        ByteBuffer buffer = offsets;
+        if(buffer == null) {
+            throw new IllegalStateException("table is closed");
+        }
+        return buffer;
+    }
+
+    private ByteBuffer page(int slot, int bytes) {
+        ByteBuffer[] pages = valuePages;
+        if(pages == null) {
+            throw new IllegalStateException("table is closed");
+        }
+        if(valueBytes != bytes) {
+            throw new IllegalStateException("table holds " + valueBytes + " byte values, not " + bytes);
+        }
+        return pages[slot >>> valuePageShift];
+    }
+}
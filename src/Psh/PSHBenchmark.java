@@ -0,0 +1,367 @@
+package Psh;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Benchmarks for PSHOffsetTable: construction against element count and spatial distribution, updateOffsets with small
+ * and large changes, hash() throughput and latency for coherent and random access, and 26 neighbour stencils over a value
+ * array in every PSHSlotLayout. The stencil benchmark also prints how many distinct 64 byte cache lines of int values one
+ * 27 slot stencil touches on average, the number of misses a cold cache would take, which timings alone only hint at.
+ * Every measurement prints the time per operation and the bytes allocated per operation, so allocation regressions in
+ * PSHOffsetTable or Vec3I show up next to the timings.
+ *
+ * Run with: java Psh.PSHBenchmark [comma separated element counts] [comma separated distributions]
+ * for example java Psh.PSHBenchmark 10000,100000 UNIFORM,SHELLS
+ */
+public class PSHBenchmark {
+
+    enum Distribution {
+        UNIFORM,   //filled at random inside a cube at about half density
+        CLUSTERED, //gaussian blobs
+        SHELLS     //surfaces of spheres, like a voxelized mesh
+    }
+
+    private static final int warmupIterations = 3;
+    private static final int measureIterations = 5;
+    private static final int lookupsPerIteration = 4_000_000;
+    private static final long seed = 42;
+
+    //results are folded into this so the JIT can't drop the work being measured
+    static volatile long sink;
+
+    interface Operation {
+        long run();
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = {10_000, 100_000, 1_000_000};
+        if(args.length > 0) {
+            String[] parts = args[0].split(",");
+            sizes = new int[parts.length];
+            for(int i = 0; i < parts.length; i++) {
+                sizes[i] = Integer.parseInt(parts[i].trim());
+            }
+        }
+        Distribution[] distributions = Distribution.values();
+        if(args.length > 1) {
+            String[] parts = args[1].split(",");
+            distributions = new Distribution[parts.length];
+            for(int i = 0; i < parts.length; i++) {
+                distributions[i] = Distribution.valueOf(parts[i].trim().toUpperCase());
+            }
+        }
+
+        for(Distribution distribution : distributions) {
+            for(int size : sizes) {
+                String name = distribution + " n=" + size;
+                ArrayList<Vec3I> keys = generate(distribution, size, new Random(seed));
+                benchBuild(name, keys);
+                benchUpdate(name, keys);
+                benchLookup(name, keys);
+                benchStencil(name, keys);
+            }
+        }
+    }
+
+    static void benchBuild(String name, ArrayList<Vec3I> keys) {
+        measure("build " + name, 1, () -> PSHOffsetTable.builder().seed(seed).build(keys).offsetTableWidth);
+    }
+
+    static void benchUpdate(String name, ArrayList<Vec3I> keys) {
+        Random random = new Random(seed);
+        PSHOffsetTable table = PSHOffsetTable.builder().seed(seed).build(keys);
+        ArrayList<Vec3I> elements = new ArrayList<>(keys);
+        HashSet<Vec3I> present = new HashSet<>(keys);
+        Vec3I bounds = bounds(keys);
+
+        //one element added or removed per update
+        measure("updateOffsets 1 changed " + name, 1, () -> {
+            if(elements.size() > keys.size()) {
+                present.remove(elements.remove(elements.size() - 1));
+            }
+            else {
+                addUnique(elements, present, bounds, random, 1);
+            }
+            table.updateOffsets(elements);
+            return table.offsetTableWidth;
+        });
+
+        //a tenth of the elements replaced per update
+        int delta = Math.max(1, keys.size() / 10);
+        measure("updateOffsets " + delta + " changed " + name, 1, () -> {
+            for(int i = 0; i < delta; i++) {
+                int victim = random.nextInt(elements.size());
+                present.remove(elements.get(victim));
+                elements.set(victim, elements.get(elements.size() - 1));
+                elements.remove(elements.size() - 1);
+            }
+            addUnique(elements, present, bounds, random, delta);
+            table.updateOffsets(elements);
+            return table.offsetTableWidth;
+        });
+    }
+
+    static void benchLookup(String name, ArrayList<Vec3I> keys) {
+        PSHOffsetTable table = PSHOffsetTable.builder().seed(seed).build(keys);
+
+        //coherent: keys visited in x, y, z order, neighbouring lookups touch neighbouring offsets
+        ArrayList<Vec3I> sorted = new ArrayList<>(keys);
+        sorted.sort((a, b) -> a.x != b.x ? Integer.compare(a.x, b.x) : a.y != b.y ? Integer.compare(a.y, b.y) : Integer.compare(a.z, b.z));
+        int[] coherent = pack(sorted);
+        ArrayList<Vec3I> shuffled = new ArrayList<>(keys);
+        Collections.shuffle(shuffled, new Random(seed));
+        int[] scattered = pack(shuffled);
+
+        measure("hash(x,y,z) coherent " + name, lookupsPerIteration, () -> lookups(table, coherent));
+        measure("hash(x,y,z) random " + name, lookupsPerIteration, () -> lookups(table, scattered));
+        measure("hashFast(x,y,z) random " + name, lookupsPerIteration, () -> {
+            long sum = 0;
+            int length = scattered.length;
+            for(int i = 0, k = 0; i < lookupsPerIteration; i++) {
+                sum += table.hashFast(scattered[k], scattered[k + 1], scattered[k + 2]);
+                k += 3;
+                if(k == length) k = 0;
+            }
+            return sum;
+        });
+        measure("hash(Vec3I) random " + name, lookupsPerIteration, () -> {
+            long sum = 0;
+            int count = shuffled.size();
+            for(int i = 0, k = 0; i < lookupsPerIteration; i++) {
+                Vec3I hash = table.hash(shuffled.get(k));
+                sum += hash.x + hash.y + hash.z;
+                if(++k == count) k = 0;
+            }
+            return sum;
+        });
+        int[] xs = new int[scattered.length / 3], ys = new int[xs.length], zs = new int[xs.length], slots = new int[xs.length];
+        for(int i = 0; i < xs.length; i++) {
+            xs[i] = scattered[3 * i];
+            ys[i] = scattered[3 * i + 1];
+            zs[i] = scattered[3 * i + 2];
+        }
+        int batches = Math.max(1, lookupsPerIteration / xs.length);
+        measure("hash(int[],int[],int[]) batch random " + name, batches * xs.length, () -> {
+            long sum = 0;
+            for(int b = 0; b < batches; b++) {
+                table.hash(xs, ys, zs, slots);
+                sum += slots[b % slots.length];
+            }
+            return sum;
+        });
+        IntBuffer packed = IntBuffer.wrap(scattered);
+        measure("hash(IntBuffer) batch random " + name, batches * xs.length, () -> {
+            long sum = 0;
+            for(int b = 0; b < batches; b++) {
+                table.hash(packed, slots, 0);
+                sum += slots[b % slots.length];
+            }
+            return sum;
+        });
+        //each key depends on the previous slot, so lookups can't overlap and the time is the latency of one lookup
+        measure("hash(x,y,z) latency " + name, lookupsPerIteration, () -> {
+            int count = scattered.length / 3;
+            int k = 0;
+            long sum = 0;
+            for(int i = 0; i < lookupsPerIteration; i++) {
+                int slot = table.hash(scattered[3 * k], scattered[3 * k + 1], scattered[3 * k + 2]);
+                sum += slot;
+                k = (int)((slot + (long)k + 1) % count);
+            }
+            return sum;
+        });
+    }
+
+    //For every key in x, y, z order, sum the int values of the slots of the key and its 26 neighbours, as a cellular automaton
+    //or finite difference step would. Neighbours that aren't keys still hash to some slot, which is read all the same.
+    static void benchStencil(String name, ArrayList<Vec3I> keys) {
+        ArrayList<Vec3I> sorted = new ArrayList<>(keys);
+        sorted.sort((a, b) -> a.x != b.x ? Integer.compare(a.x, b.x) : a.y != b.y ? Integer.compare(a.y, b.y) : Integer.compare(a.z, b.z));
+        int[] coherent = pack(sorted);
+        int count = sorted.size();
+        int stencils = Math.max(1, lookupsPerIteration / 27);
+        for(PSHSlotLayout layout : PSHSlotLayout.values()) {
+            PSHOffsetTable table = PSHOffsetTable.builder().seed(seed).slotLayout(layout).build(keys);
+            int[] values = new int[table.hashTableSize()];
+            for(int i = 0; i < values.length; i++) {
+                values[i] = i;
+            }
+            long lines = 0;
+            int[] stencilLines = new int[27];
+            for(int i = 0, k = 0; i < count; i++, k += 3) {
+                int distinct = 0;
+                for(int dx = -1; dx <= 1; dx++) {
+                    for(int dy = -1; dy <= 1; dy++) {
+                        for(int dz = -1; dz <= 1; dz++) {
+                            int line = table.hashFast(coherent[k] + dx, coherent[k + 1] + dy, coherent[k + 2] + dz) >>> 4;
+                            boolean seen = false;
+                            for(int j = 0; j < distinct && !seen; j++) {
+                                seen = stencilLines[j] == line;
+                            }
+                            if(!seen) {
+                                stencilLines[distinct++] = line;
+                            }
+                        }
+                    }
+                }
+                lines += distinct;
+            }
+            System.out.println(String.format("%-55s %12.2f lines/stencil (%d slots)", "stencil cache lines " + layout + " " + name, (double)lines / count, values.length));
+            measure("stencil 26 neighbours " + layout + " " + name, stencils, () -> {
+                long sum = 0;
+                for(int i = 0, k = 0; i < stencils; i++) {
+                    int x = coherent[k], y = coherent[k + 1], z = coherent[k + 2];
+                    for(int dx = -1; dx <= 1; dx++) {
+                        for(int dy = -1; dy <= 1; dy++) {
+                            for(int dz = -1; dz <= 1; dz++) {
+                                sum += values[table.hashFast(x + dx, y + dy, z + dz)];
+                            }
+                        }
+                    }
+                    k += 3;
+                    if(k == coherent.length) k = 0;
+                }
+                return sum;
+            });
+            PSHNeighborhood neighborhood = new PSHNeighborhood(PSHStencil.box(1, true));
+            measure("hashStencil 27 " + layout + " " + name, stencils, () -> {
+                long sum = 0;
+                int[] slots = neighborhood.slots;
+                for(int i = 0, k = 0; i < stencils; i++) {
+                    table.hashStencil(coherent[k], coherent[k + 1], coherent[k + 2], neighborhood);
+                    for(int j = 0; j < slots.length; j++) {
+                        sum += values[slots[j]];
+                    }
+                    k += 3;
+                    if(k == coherent.length) k = 0;
+                }
+                return sum;
+            });
+        }
+    }
+
+    private static long lookups(PSHOffsetTable table, int[] xyz) {
+        long sum = 0;
+        int length = xyz.length;
+        for(int i = 0, k = 0; i < lookupsPerIteration; i++) {
+            sum += table.hash(xyz[k], xyz[k + 1], xyz[k + 2]);
+            k += 3;
+            if(k == length) k = 0;
+        }
+        return sum;
+    }
+
+    static void measure(String name, int operationsPerRun, Operation operation) {
+        for(int i = 0; i < warmupIterations; i++) {
+            sink += operation.run();
+        }
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        long allocated = 0;
+        for(int i = 0; i < measureIterations; i++) {
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            sink += operation.run();
+            long time = System.nanoTime() - start;
+            allocated += allocatedBytes() - bytesBefore;
+            best = Math.min(best, time);
+            total += time;
+        }
+        double perOperation = (double)total / measureIterations / operationsPerRun;
+        double bestPerOperation = (double)best / operationsPerRun;
+        double bytesPerOperation = (double)allocated / measureIterations / operationsPerRun;
+        if(operationsPerRun == 1) {
+            System.out.println(String.format("%-55s %12.3f ms/op (best %.3f) %14.0f B/op", name, perOperation / 1e6, bestPerOperation / 1e6, bytesPerOperation));
+        }
+        else {
+            System.out.println(String.format("%-55s %12.3f ns/op (best %.3f) %14.3f B/op", name, perOperation, bestPerOperation, bytesPerOperation));
+        }
+    }
+
+    //bytes allocated by this thread so far, 0 when the JVM can't tell
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    static ArrayList<Vec3I> generate(Distribution distribution, int size, Random random) {
+        HashSet<Vec3I> set = new HashSet<>(size * 2);
+        ArrayList<Vec3I> keys = new ArrayList<>(size);
+        int side = (int)Math.ceil(Math.cbrt(size * 2.0));
+        switch(distribution) {
+            case UNIFORM:
+                addUnique(keys, set, new Vec3I(side), random, size);
+                break;
+            case CLUSTERED: {
+                int clusters = Math.max(1, size / 2000);
+                double sigma = Math.cbrt(size / (double)clusters);
+                Vec3I[] centers = new Vec3I[clusters];
+                for(int i = 0; i < clusters; i++) {
+                    centers[i] = new Vec3I(random.nextInt(side * 4), random.nextInt(side * 4), random.nextInt(side * 4));
+                }
+                while(keys.size() < size) {
+                    Vec3I c = centers[random.nextInt(clusters)];
+                    Vec3I key = new Vec3I(c.x + (int)Math.round(random.nextGaussian() * sigma), c.y + (int)Math.round(random.nextGaussian() * sigma), c.z + (int)Math.round(random.nextGaussian() * sigma));
+                    if(set.add(key)) keys.add(key);
+                }
+                break;
+            }
+            case SHELLS: {
+                while(keys.size() < size) {
+                    double radius = 4 + random.nextInt(Math.max(1, side));
+                    double cx = random.nextInt(side * 4), cy = random.nextInt(side * 4), cz = random.nextInt(side * 4);
+                    int points = (int)Math.min(size - keys.size(), 4 * Math.PI * radius * radius);
+                    for(int i = 0; i < points; i++) {
+                        double u = random.nextDouble() * 2 - 1;
+                        double theta = random.nextDouble() * 2 * Math.PI;
+                        double r = Math.sqrt(1 - u * u);
+                        Vec3I key = new Vec3I((int)Math.round(cx + radius * r * Math.cos(theta)), (int)Math.round(cy + radius * r * Math.sin(theta)), (int)Math.round(cz + radius * u));
+                        if(set.add(key)) keys.add(key);
+                    }
+                }
+                break;
+            }
+        }
+        return keys;
+    }
+
+    private static void addUnique(ArrayList<Vec3I> keys, HashSet<Vec3I> present, Vec3I bounds, Random random, int count) {
+        for(int added = 0; added < count; ) {
+            Vec3I key = new Vec3I(random.nextInt(bounds.x), random.nextInt(bounds.y), random.nextInt(bounds.z));
+            if(present.add(key)) {
+                keys.add(key);
+                added++;
+            }
+        }
+    }
+
+    private static Vec3I bounds(ArrayList<Vec3I> keys) {
+        Vec3I max = new Vec3I(1);
+        for(Vec3I key : keys) {
+            max.x = Math.max(max.x, key.x + 1);
+            max.y = Math.max(max.y, key.y + 1);
+            max.z = Math.max(max.z, key.z + 1);
+        }
+        return max;
+    }
+
+    private static int[] pack(ArrayList<Vec3I> keys) {
+        int[] xyz = new int[3 * keys.size()];
+        for(int i = 0; i < keys.size(); i++) {
+            Vec3I key = keys.get(i);
+            xyz[3 * i] = key.x;
+            xyz[3 * i + 1] = key.y;
+            xyz[3 * i + 2] = key.z;
+        }
+        return xyz;
+    }
+}
@@ -0,0 +1,16 @@
+package Psh;
+
+/**
+ * Gets told about the progress of a PSHOffsetTable build, update or rebuild, see PSHOffsetTable.Builder.listener().
+ * Called on the thread doing the build.
+ */
+public interface PSHBuildListener {
+
+    //an attempt failed to place every bucket, the offset table is grown and the build starts over
+    default void onRetry(PSHBuildStats stats) {}
+
+    default void onFinished(PSHBuildStats stats) {}
+
+    //the retry limit was reached, the build throws right after this
+    default void onFailed(PSHBuildStats stats) {}
+}
@@ -0,0 +1,166 @@
+package Psh;
+
+/**
+ * What happened while a PSHOffsetTable was built or updated: time per phase, how offsets were found, retries and the
+ * resulting sizes. Get the stats of the last build from PSHOffsetTable.getBuildStats() or through a PSHBuildListener.
+ * Times are in nanoseconds. When offsets are searched for on several threads the search time is summed over the threads.
+ */
+public class PSHBuildStats {
+
+    public enum Kind {
+        BUILD,   //the constructor
+        UPDATE,  //updateOffsets()
+        REBUILD  //an incremental insert() or remove() that had to rebuild the table
+    }
+
+    private final Kind kind;
+    private final long seed;
+    private final long startNanos = System.nanoTime();
+    private long totalNanos;
+    private long deduplicationNanos;
+    private int mergedDuplicates;
+    private long bucketingNanos;
+    private long sortNanos;
+    private long offsetSearchNanos;
+    private long keptOffsets;
+    private long neighborOffsetHits;
+    private long scanHits;
+    private long failedSearches;
+    private long offsetProbes;
+    private long displacedBuckets;
+    private int retries;
+    private int elementCount;
+    private int bucketCount;
+    //width of every axis of the two tables, three of them for a PSHOffsetTable
+    private int[] hashTableShape = new int[0];
+    private int[] offsetTableShape = new int[0];
+    private long offsetTableBytes;
+    private long occupancyBytes;
+
+    PSHBuildStats(Kind kind, long seed) {
+        this.kind = kind;
+        this.seed = seed;
+    }
+
+    void addDeduplication(long nanos, int merged) {
+        deduplicationNanos += nanos;
+        mergedDuplicates += merged;
+    }
+    void addBucketing(long nanos, int buckets) {
+        bucketingNanos += nanos;
+        bucketCount = buckets;
+    }
+    void addSort(long nanos) {
+        sortNanos += nanos;
+    }
+    void addKeptOffset() {
+        keptOffsets++;
+    }
+    void addRetry() {
+        retries++;
+    }
+    void addDisplaced(int buckets) {
+        displacedBuckets += buckets;
+    }
+
+    //result of one findOffsetRandom call, which may run on a pool thread
+    synchronized void addSearch(long nanos, int probes, boolean neighborHit, boolean found) {
+        offsetSearchNanos += nanos;
+        offsetProbes += probes;
+        if(!found) failedSearches++;
+        else if(neighborHit) neighborOffsetHits++;
+        else scanHits++;
+    }
+
+    void finish(int elementCount, int[] hashTableShape, int[] offsetTableShape, long offsetTableBytes, long occupancyBytes) {
+        totalNanos = System.nanoTime() - startNanos;
+        this.elementCount = elementCount;
+        this.hashTableShape = hashTableShape.clone();
+        this.offsetTableShape = offsetTableShape.clone();
+        this.offsetTableBytes = offsetTableBytes;
+        this.occupancyBytes = occupancyBytes;
+    }
+
+    public Kind getKind() { return kind; }
+    //seed of the table's offset search, see PSHOffsetTable.Builder.seed()
+    public long getSeed() { return seed; }
+    //wall time of the whole build, 0 until it is finished
+    public long getTotalNanos() { return totalNanos; }
+    //finding repeated keys before building
+    public long getDeduplicationNanos() { return deduplicationNanos; }
+    //repeated keys that were dropped
+    public int getMergedDuplicates() { return mergedDuplicates; }
+    //putting the elements into offset buckets, summed over retries
+    public long getBucketingNanos() { return bucketingNanos; }
+    //sorting the buckets by size, summed over retries
+    public long getSortNanos() { return sortNanos; }
+    //searching for offsets, summed over retries and threads
+    public long getOffsetSearchNanos() { return offsetSearchNanos; }
+    //buckets of updateOffsets() that kept the offset they had
+    public long getKeptOffsets() { return keptOffsets; }
+    //buckets placed by reusing the offset of a neighbouring bucket
+    public long getNeighborOffsetHits() { return neighborOffsetHits; }
+    //buckets placed by scanning for free slots
+    public long getScanHits() { return scanHits; }
+    //searches that found no offset, each one displaces other buckets or ends an attempt
+    public long getFailedSearches() { return failedSearches; }
+    //placed buckets taken out again to make room for one whose search failed, see PSHSizingPolicy.displacementBudget
+    public long getDisplacedBuckets() { return displacedBuckets; }
+    //candidate offsets tested against the filled slots
+    public long getOffsetProbes() { return offsetProbes; }
+    public int getRetries() { return retries; }
+    public int getElementCount() { return elementCount; }
+    //non empty buckets of the last attempt
+    public int getBucketCount() { return bucketCount; }
+    //widest axis of the table
+    public int getHashTableWidth() { return max(hashTableShape); }
+    public int getOffsetTableWidth() { return max(offsetTableShape); }
+    //per axis widths of a 3D table
+    public Vec3I getHashTableDims() { return dims(hashTableShape); }
+    public Vec3I getOffsetTableDims() { return dims(offsetTableShape); }
+    //per axis widths for any number of dimensions
+    public int[] getHashTableShape() { return hashTableShape.clone(); }
+    public int[] getOffsetTableShape() { return offsetTableShape.clone(); }
+    public long getOffsetTableBytes() { return offsetTableBytes; }
+    //the filled slot bitset used while building
+    public long getOccupancyBytes() { return occupancyBytes; }
+
+    public float getLoadFactor() {
+        if(hashTableShape.length == 0) {
+            return 0;
+        }
+        float slots = 1;
+        for(int width : hashTableShape) {
+            slots *= width;
+        }
+        return elementCount / slots;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s of %d elements in %.3f ms (deduplication %.3f, bucketing %.3f, sort %.3f, offset search %.3f), hash table %s (load %.3f), offset table %s (%d bytes), " +
+                        "offsets kept %d, neighbor hits %d, scan hits %d, failed searches %d, probes %d, displaced %d, retries %d, duplicates merged %d, seed %d",
+                kind, elementCount, totalNanos / 1e6, deduplicationNanos / 1e6, bucketingNanos / 1e6, sortNanos / 1e6, offsetSearchNanos / 1e6, shape(hashTableShape), getLoadFactor(),
+                shape(offsetTableShape), offsetTableBytes, keptOffsets, neighborOffsetHits, scanHits, failedSearches, offsetProbes, displacedBuckets, retries, mergedDuplicates, seed);
+    }
+
+    private static String shape(int[] shape) {
+        StringBuilder text = new StringBuilder();
+        boolean cube = true;
+        for(int a = 0; a < shape.length; a++) {
+            text.append(a == 0 ? "" : "x").append(shape[a]);
+            cube &= shape[a] == shape[0];
+        }
+        return cube && shape.length > 0 ? shape[0] + "^" + shape.length : text.toString();
+    }
+    private static int max(int[] shape) {
+        int max = 0;
+        for(int width : shape) {
+            max = Math.max(max, width);
+        }
+        return max;
+    }
+    private static Vec3I dims(int[] shape) {
+        return shape.length == 3 ? new Vec3I(shape[0], shape[1], shape[2]) : new Vec3I();
+    }
+}
@@ -0,0 +1,1027 @@
+package Psh;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The build of a perfect spatial hash for keys with any number of coordinates, shared by PSHOffsetTable, PSHOffsetTable2D and
+ * PSHOffsetTable4D, which only add the unrolled hash of their dimension. Keys come packed dimension ints a key and both tables
+ * are row major with the first axis the slowest: a slot is ((h0 * W1 + h1) * W2 + h2)... for the per axis widths W of the hash
+ * table, likewise for offset table entries.
+ *
+ * A build merges repeated keys with SpatialKeySet, puts the keys into buckets by a counting sort and places the buckets biggest
+ * first, trying the offsets of their neighbours along each axis and then the free slots from a random start. A bucket that finds
+ * no free place displaces a single placed bucket within the sizing policy's displacement budget, and a failed attempt grows the
+ * offset table as the PSHSizingPolicy says. With a parallelism above 1 the offsets are proposed in batches on several threads.
+ * An incremental engine keeps its buckets and filled slots after building, so single keys can be inserted and removed.
+ */
+final class PSHEngine {
+
+    static final PSHBuildListener noListener = new PSHBuildListener() {};
+    //the time budget is checked every this many + 1 buckets
+    private static final int timeCheckMask = 63;
+    //an attempt with more than failureWindow failed searches within failureSpan placed buckets stops displacing and is retried,
+    //failures that dense only come from an offset table too small to ever finish
+    private static final int failureWindow = 16;
+    private static final int failureSpan = 256;
+    //buckets that get offsets proposed together before they are committed in order by a parallel build, the same for any
+    //number of threads
+    private static final int proposalBatchSize = 256;
+    //load factors at which an incremental edit rebuilds the whole table
+    private static final float maxIncrementalLoad = 0.85f;
+    private static final float minIncrementalLoad = 0.25f;
+    private static final float incrementalHeadroom = 1.5f;
+
+    final int dimension;
+    final int[] hashTableDims;
+    final int[] offsetTableDims;
+    //division free reductions by the widths of each axis, kept in step with them by widthsChanged()
+    FastMod[] hashMod;
+    FastMod[] offsetMod;
+    //dimension components per offset table entry, each reduced mod the hash table width of its axis
+    PackedOffsets offsets;
+    int n;
+    PSHSizingPolicy sizing;
+    PSHBuildStats stats;
+    final long seed;
+    final boolean incremental;
+    //the keys that changed slot in the last insert() or remove(), dimension ints each, with their row major slots before and
+    //after it, -1 for a key that wasn't in the table before or after
+    int[] editedKeys;
+    int[] editedFrom;
+    int[] editedTo;
+
+    private final int parallelism;
+    private final boolean rejectDuplicates;
+    private final PSHBuildListener listener;
+    //Every random choice of a build comes from seed, so the same keys in the same order with the same seed give the same
+    //table, bit for bit. random drives the searches made in order, parallelRandom is split over the proposal tasks.
+    private final Random random;
+    private final SplittableRandom parallelRandom;
+    private int hashTableSize;
+    private int offsetTableSize;
+    private int creationAttempts;
+    private long deadline; //System.nanoTime() by which the current build has to be done, see PSHSizingPolicy.timeBudgetNanos
+
+    private PackedKeys keys;
+    //The keys grouped by offset table entry, a bucket per entry. Bucket b holds the bucketSize[b] keys starting at
+    //bucketKeys[dimension * bucketStart[b]]. In an incremental engine a bucket has room for bucketCapacity[b] keys, a bucket
+    //that outgrows it moves to bucketKeysEnd, the end of the used part of bucketKeys.
+    private int[] bucketKeys;
+    private int[] bucketStart;
+    private int[] bucketSize;
+    private int[] bucketCapacity;
+    private int bucketKeysEnd;
+    private SlotBitSet hashFilled; //one bit per row major slot of the hash table
+    //bucket + 1 of every filled slot, 0 for a free one, only kept once a bucket had to displace others
+    private int[] slotBucket;
+    //number of the last displacement chain that moved each bucket, 0 for none, kept with slotBucket
+    private int[] bucketChain;
+    private int chain;
+    private int displacementsLeft;
+    //placed buckets at the last failureWindow failed searches of the attempt, a ring indexed by failedSearches
+    private final int[] recentFailures = new int[failureWindow];
+    private int failedSearches;
+    //scratch space of the thread that places buckets, never of the proposal tasks
+    private final int[] offset;
+    private final int[] anchorCoordinates;
+
+    PSHEngine(int dimension, PSHSizingPolicy sizing, long seed, int parallelism, boolean incremental, boolean rejectDuplicates, PSHBuildListener listener) {
+        if(dimension < 1) {
+            throw new IllegalArgumentException("dimension has to be at least 1 but was " + dimension);
+        }
+        this.dimension = dimension;
+        this.sizing = sizing;
+        this.seed = seed;
+        this.parallelism = parallelism;
+        this.incremental = incremental;
+        this.rejectDuplicates = rejectDuplicates;
+        this.listener = listener == null ? noListener : listener;
+        random = new Random(seed);
+        parallelRandom = new SplittableRandom(seed);
+        hashTableDims = new int[dimension];
+        offsetTableDims = new int[dimension];
+        offset = new int[dimension];
+        anchorCoordinates = new int[dimension];
+    }
+
+    //a table that was built before, see PSHTableIO.read()
+    void load(int[] hashTableDims, int[] offsetTableDims, PackedOffsets offsets, int n) {
+        System.arraycopy(hashTableDims, 0, this.hashTableDims, 0, dimension);
+        System.arraycopy(offsetTableDims, 0, this.offsetTableDims, 0, dimension);
+        fastModsChanged();
+        this.offsets = offsets;
+        this.n = n;
+    }
+
+    //Builds the tables for keys, which are deduplicated in place unless the build is a REBUILD of keys known to be distinct.
+    void build(PackedKeys keys, PSHBuildStats.Kind kind) {
+        stats = new PSHBuildStats(kind, seed);
+        startTimeBudget();
+        if(kind != PSHBuildStats.Kind.REBUILD) {
+            removeDuplicates(keys);
+        }
+        n = keys.size;
+        this.keys = keys;
+        chooseWidths(capacity(n));
+
+        hashFilled = new SlotBitSet(hashTableSize);
+        offsets = new PackedOffsets(dimension * offsetTableSize, hashTableDims);
+        creationAttempts = 0;
+
+        while(!calculateOffsets()) {
+            tryCreateAgain();
+        }
+        finishBuild();
+        cleanUp();
+    }
+
+    //Builds the tables for keys again. If the offset table keeps its widths, every bucket whose keys still fit its stored offset
+    //keeps it and only the others are searched for.
+    void update(PackedKeys keys) {
+        stats = new PSHBuildStats(PSHBuildStats.Kind.UPDATE, seed);
+        startTimeBudget();
+        removeDuplicates(keys);
+        n = keys.size;
+        this.keys = keys;
+        int[] oldOffsetDims = offsetTableDims.clone();
+        //sized the way build() sizes, so unchanged offset table widths mean the stored offsets can be kept
+        chooseWidths(capacity(n));
+
+        hashFilled = new SlotBitSet(hashTableSize);
+        creationAttempts = 0;
+
+        boolean placed;
+        if(!Arrays.equals(oldOffsetDims, offsetTableDims)) {
+            offsets = new PackedOffsets(dimension * offsetTableSize, hashTableDims);
+            placed = calculateOffsets();
+        }
+        else {
+            if(!offsets.hasHashTableDims(hashTableDims)) {
+                offsets = offsets.withHashTableDims(hashTableDims);
+            }
+            placed = keepOffsets();
+        }
+        while(!placed) {
+            tryCreateAgain();
+            placed = calculateOffsets();
+        }
+        finishBuild();
+        cleanUp();
+    }
+
+    //keys the tables are sized for: an incremental table is sized for more keys than it has, so there is room to move buckets
+    //around when keys are inserted
+    private int capacity(int size) {
+        return incremental ? (int)(size * incrementalHeadroom) : size;
+    }
+    //Sizes both tables for capacity keys: the same width on every axis, or shaped like the bounding box of the keys if the
+    //sizing policy fits bounds.
+    private void chooseWidths(int capacity) {
+        if(sizing.fitBounds && keys.size > 0) {
+            int d = dimension;
+            int[] coordinates = keys.coordinates;
+            long[] extent = new long[d];
+            for(int a = 0; a < d; a++) {
+                int min = coordinates[a], max = coordinates[a];
+                for(int k = d + a; k < d * keys.size; k += d) {
+                    min = Math.min(min, coordinates[k]);
+                    max = Math.max(max, coordinates[k]);
+                }
+                //the extent as a long so keys spanning the whole int range don't overflow it
+                extent[a] = (long)max - min + 1;
+            }
+            System.arraycopy(sizing.fitHashTable(capacity, extent), 0, hashTableDims, 0, d);
+            System.arraycopy(sizing.fitOffsetTable(capacity, hashTableDims), 0, offsetTableDims, 0, d);
+        }
+        else {
+            Arrays.fill(hashTableDims, sizing.hashTableWidth(capacity, dimension));
+            Arrays.fill(offsetTableDims, sizing.offsetTableWidth(capacity, dimension));
+        }
+        makeCoprime();
+        widthsChanged();
+    }
+    //make sure there are no common factors between the widths of an axis
+    private void makeCoprime() {
+        for(int a = 0; a < dimension; a++) {
+            while(MathGeneral.gcd(offsetTableDims[a], hashTableDims[a]) > 1) {
+                offsetTableDims[a]++;
+            }
+        }
+    }
+    private void widthsChanged() {
+        fastModsChanged();
+        long hashSize = 1, offsetSize = 1;
+        for(int a = 0; a < dimension; a++) {
+            hashSize *= hashTableDims[a];
+            offsetSize *= offsetTableDims[a];
+            if(hashSize > Integer.MAX_VALUE || dimension * offsetSize > Integer.MAX_VALUE) {
+                throw new IllegalStateException("tables of " + Arrays.toString(hashTableDims) + " and " + Arrays.toString(offsetTableDims) + " are too large");
+            }
+        }
+        hashTableSize = (int)hashSize;
+        offsetTableSize = (int)offsetSize;
+    }
+    //only the reductions, a table read from a file is never built on and may have more slots than an int counts
+    private void fastModsChanged() {
+        if(hashMod == null) {
+            hashMod = new FastMod[dimension];
+            offsetMod = new FastMod[dimension];
+        }
+        for(int a = 0; a < dimension; a++) {
+            hashMod[a] = fastMod(hashMod[a], hashTableDims[a]);
+            offsetMod[a] = fastMod(offsetMod[a], offsetTableDims[a]);
+        }
+    }
+    private static FastMod fastMod(FastMod current, int divisor) {
+        return current != null && current.divisor == divisor ? current : new FastMod(divisor);
+    }
+
+    private void startTimeBudget() {
+        deadline = sizing.timeBudgetNanos == 0 ? 0 : System.nanoTime() + sizing.timeBudgetNanos;
+    }
+    private void checkTimeBudget() {
+        if(deadline != 0 && System.nanoTime() - deadline > 0) {
+            fail("build took longer than its time budget of " + sizing.timeBudgetNanos / 1e6 + " ms");
+        }
+    }
+    private void fail(String message) {
+        stats.finish(n, hashTableDims, offsetTableDims, offsets.memoryBytes(), hashFilled.words.length * 8L);
+        listener.onFailed(stats);
+        throw new IllegalStateException(message + ": " + stats);
+    }
+    private void removeDuplicates(PackedKeys keys) {
+        long start = System.nanoTime();
+        int removed = SpatialKeySet.removeDuplicates(keys, rejectDuplicates);
+        stats.addDeduplication(System.nanoTime() - start, removed);
+    }
+    private void finishBuild() {
+        stats.finish(n, hashTableDims, offsetTableDims, offsets.memoryBytes(), hashFilled.words.length * 8L);
+        listener.onFinished(stats);
+    }
+    private void cleanUp() {
+        keys = null;
+        slotBucket = null;
+        bucketChain = null;
+        if(!incremental) {
+            bucketKeys = null;
+            bucketStart = null;
+            bucketSize = null;
+            bucketCapacity = null;
+            hashFilled = null;
+        }
+    }
+
+    //Adds key, dimension ints, to an incremental table. If the key's slot is taken, its bucket gets a new offset. Returns true if
+    //the whole table had to be rebuilt, otherwise editedKeys, editedFrom and editedTo tell which keys changed slot.
+    boolean insert(int[] key) {
+        edited(0);
+        int bucket = bucketIndex(key, 0);
+        if(findInBucket(bucket, key) >= 0) {
+            return false;
+        }
+        n++;
+        if(n > maxIncrementalLoad * hashTableSize || collidesInBucket(bucket, bucketSize[bucket], key, 0)) {
+            //a key that hashes like one of its bucket can't get a slot of its own with any offset, the rebuild grows the offset table
+            addToBucket(bucket, key);
+            rebuild();
+            return true;
+        }
+
+        getOffset(bucket, offset);
+        int slot = slot(key, 0, offset);
+        if(!hashFilled.get(slot)) {
+            addToBucket(bucket, key);
+            hashFilled.set(slot);
+            edited(1);
+            System.arraycopy(key, 0, editedKeys, 0, dimension);
+            editedFrom[0] = -1;
+            editedTo[0] = slot;
+            return false;
+        }
+
+        //the bucket has to move, free its slots and look for an offset that fits the bucket with the new key
+        addToBucket(bucket, key);
+        int moved = bucketSize[bucket];
+        edited(moved);
+        System.arraycopy(bucketKeys, dimension * bucketStart[bucket], editedKeys, 0, dimension * moved);
+        for(int i = 0; i < moved - 1; i++) {
+            int oldSlot = slot(editedKeys, dimension * i, offset);
+            hashFilled.clear(oldSlot);
+            editedFrom[i] = oldSlot;
+        }
+        editedFrom[moved - 1] = -1;
+        int anchor = findOffsetRandom(bucket, random.nextInt(hashTableSize));
+        if(anchor < 0) {
+            rebuild();
+            return true;
+        }
+        anchorOffset(bucket, anchor, offset);
+        setOffset(bucket, offset);
+        for(int i = 0; i < moved; i++) {
+            int newSlot = slot(editedKeys, dimension * i, offset);
+            hashFilled.set(newSlot);
+            editedTo[i] = newSlot;
+        }
+        return false;
+    }
+
+    //Removes key from an incremental table, no other key changes slot unless the table got empty enough to be rebuilt.
+    //Returns true if it was, otherwise editedKeys, editedFrom and editedTo tell which keys changed slot.
+    boolean remove(int[] key) {
+        edited(0);
+        int bucket = bucketIndex(key, 0);
+        int position = findInBucket(bucket, key);
+        if(position < 0) {
+            return false;
+        }
+        //the last key of the bucket takes the place of the removed one
+        int size = --bucketSize[bucket];
+        System.arraycopy(bucketKeys, dimension * (bucketStart[bucket] + size), bucketKeys, dimension * (bucketStart[bucket] + position), dimension);
+        n--;
+        if(n * sizing.slotsPerKey() < minIncrementalLoad * hashTableSize) {
+            rebuild();
+            return true;
+        }
+        getOffset(bucket, offset);
+        int slot = slot(key, 0, offset);
+        hashFilled.clear(slot);
+        edited(1);
+        System.arraycopy(key, 0, editedKeys, 0, dimension);
+        editedFrom[0] = slot;
+        editedTo[0] = -1;
+        return false;
+    }
+
+    private void edited(int keys) {
+        editedKeys = new int[dimension * keys];
+        editedFrom = new int[keys];
+        editedTo = new int[keys];
+    }
+
+    //position of key in bucket, -1 if it isn't in it
+    private int findInBucket(int bucket, int[] key) {
+        int d = dimension;
+        next:
+        for(int i = 0, k = d * bucketStart[bucket]; i < bucketSize[bucket]; i++, k += d) {
+            for(int a = 0; a < d; a++) {
+                if(bucketKeys[k + a] != key[a]) {
+                    continue next;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void addToBucket(int bucket, int[] key) {
+        int size = bucketSize[bucket];
+        if(size == bucketCapacity[bucket]) {
+            moveBucketToEnd(bucket, Math.max(2, 2 * size));
+        }
+        System.arraycopy(key, 0, bucketKeys, dimension * (bucketStart[bucket] + size), dimension);
+        bucketSize[bucket] = size + 1;
+    }
+
+    //Gives bucket room for capacity keys behind the last bucket. The space it leaves is reclaimed when bucketKeys is full
+    //and mostly gaps, by packing all buckets again.
+    private void moveBucketToEnd(int bucket, int capacity) {
+        int d = dimension;
+        if((long)d * (bucketKeysEnd + capacity) > bucketKeys.length) {
+            long used = 0;
+            for(int b = 0; b < bucketCapacity.length; b++) {
+                used += bucketCapacity[b];
+            }
+            if(2 * used < bucketKeysEnd) {
+                compactBuckets();
+            }
+            if((long)d * (bucketKeysEnd + capacity) > bucketKeys.length) {
+                long length = Math.max((long)d * (bucketKeysEnd + capacity), 2L * bucketKeys.length);
+                if(length > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("too many keys for one table: " + n);
+                }
+                bucketKeys = Arrays.copyOf(bucketKeys, (int)length);
+            }
+        }
+        System.arraycopy(bucketKeys, d * bucketStart[bucket], bucketKeys, d * bucketKeysEnd, d * bucketSize[bucket]);
+        bucketStart[bucket] = bucketKeysEnd;
+        bucketCapacity[bucket] = capacity;
+        bucketKeysEnd += capacity;
+    }
+
+    private void compactBuckets() {
+        int d = dimension;
+        int[] packed = new int[bucketKeys.length];
+        int end = 0;
+        for(int b = 0; b < bucketStart.length; b++) {
+            System.arraycopy(bucketKeys, d * bucketStart[b], packed, d * end, d * bucketSize[b]);
+            bucketStart[b] = end;
+            end += bucketCapacity[b];
+        }
+        bucketKeys = packed;
+        bucketKeysEnd = end;
+    }
+
+    private void rebuild() {
+        PackedKeys all = new PackedKeys(dimension, n);
+        for(int b = 0; b < bucketSize.length; b++) {
+            all.add(bucketKeys, dimension * bucketStart[b], bucketSize[b]);
+        }
+        build(all, PSHBuildStats.Kind.REBUILD);
+    }
+
+    //Groups the keys by bucket with a counting sort: count the keys of each bucket, lay the buckets out one after the other
+    //in bucketKeys and copy every key to its bucket. An incremental table gets some room behind each bucket for inserts.
+    private void putElementsIntoBuckets() {
+        int d = dimension;
+        int buckets = offsetTableSize;
+        bucketStart = new int[buckets];
+        bucketSize = new int[buckets];
+        int[] coordinates = keys.coordinates;
+        for(int i = 0, k = 0; i < n; i++, k += d) {
+            bucketSize[bucketIndex(coordinates, k)]++;
+        }
+        bucketCapacity = incremental ? new int[buckets] : bucketSize;
+        long end = 0;
+        for(int b = 0; b < buckets; b++) {
+            bucketStart[b] = (int)end;
+            if(incremental) {
+                bucketCapacity[b] = bucketSize[b] + 1 + (bucketSize[b] >> 1);
+            }
+            end += bucketCapacity[b];
+        }
+        if(d * end > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("too many keys for one table: " + n);
+        }
+        bucketKeysEnd = (int)end;
+        bucketKeys = new int[d * bucketKeysEnd];
+        int[] filled = new int[buckets];
+        for(int i = 0, k = 0; i < n; i++, k += d) {
+            int b = bucketIndex(coordinates, k);
+            System.arraycopy(coordinates, k, bucketKeys, d * (bucketStart[b] + filled[b]++), d);
+        }
+    }
+    //The non empty buckets, biggest first. Bucket sizes are small numbers so this is a counting sort too,
+    //buckets of the same size keep their index order.
+    private int[] createSortedBucketList() {
+        int maxSize = 0;
+        int count = 0;
+        for(int b = 0; b < bucketSize.length; b++) {
+            if(bucketSize[b] > 0) {
+                count++;
+                maxSize = Math.max(maxSize, bucketSize[b]);
+            }
+        }
+        int[] firstOfSize = new int[maxSize + 1];
+        for(int b = 0; b < bucketSize.length; b++) {
+            firstOfSize[bucketSize[b]]++;
+        }
+        int position = 0;
+        for(int size = maxSize; size > 0; size--) {
+            int buckets = firstOfSize[size];
+            firstOfSize[size] = position;
+            position += buckets;
+        }
+        int[] order = new int[count];
+        for(int b = 0; b < bucketSize.length; b++) {
+            int size = bucketSize[b];
+            if(size > 0) {
+                order[firstOfSize[size]++] = b;
+            }
+        }
+        return order;
+    }
+    private int[] bucketAndSort() {
+        long start = System.nanoTime();
+        putElementsIntoBuckets();
+        long bucketed = System.nanoTime();
+        int[] order = createSortedBucketList();
+        stats.addBucketing(bucketed - start, order.length);
+        stats.addSort(System.nanoTime() - bucketed);
+        return order;
+    }
+
+    //one attempt with the current widths, false if it has to be retried with a bigger offset table
+    private boolean calculateOffsets() {
+        int[] order = bucketAndSort();
+        if(hasBadCollisions(order)) {
+            return false;
+        }
+        startDisplacements(order.length);
+
+        if(parallelism > 1) {
+            return calculateOffsetsParallel(order);
+        }
+
+        for(int i = 0; i < order.length; i++) {
+            int bucket = order[i];
+            if((i & timeCheckMask) == 0) {
+                checkTimeBudget();
+            }
+            int anchor = findOffsetRandom(bucket, random.nextInt(hashTableSize));
+            if(anchor < 0) {
+                if(!displace(bucket, order, i)) {
+                    return false;
+                }
+                continue;
+            }
+            place(bucket, anchor);
+        }
+        return true;
+    }
+    //The attempt of update() with unchanged offset table widths: a bucket whose keys fit its stored offset keeps it, the others
+    //are searched for. False if it has to be retried with a bigger offset table.
+    private boolean keepOffsets() {
+        int[] order = bucketAndSort();
+        if(hasBadCollisions(order)) {
+            return false;
+        }
+        startDisplacements(order.length);
+
+        for(int i = 0; i < order.length; i++) {
+            int bucket = order[i];
+            if((i & timeCheckMask) == 0) {
+                checkTimeBudget();
+            }
+            getOffset(bucket, offset);
+            if(offsetWorks(bucket, offset)) {
+                stats.addKeptOffset();
+                fillHashCheck(bucket, offset);
+                continue;
+            }
+            int anchor = findOffsetRandom(bucket, random.nextInt(hashTableSize));
+            if(anchor < 0) {
+                if(!displace(bucket, order, i)) {
+                    return false;
+                }
+                continue;
+            }
+            place(bucket, anchor);
+        }
+        return true;
+    }
+    //Buckets are taken in batches. The offsets of a batch are searched for concurrently against the filled slots as they
+    //were before the batch, then committed in bucket order, a proposal that collides with an earlier commit of the same batch
+    //is searched for again on this thread, so the table stays collision free. The tasks of a batch split their random numbers
+    //off parallelRandom in a fixed order and batches have the same size whatever the parallelism, so the proposals don't depend
+    //on which thread ran which task or on how many there are.
+    private boolean calculateOffsetsParallel(int[] order) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            int[] proposals = new int[Math.min(proposalBatchSize, order.length)];
+            for(int start = 0; start < order.length; start += proposalBatchSize) {
+                int end = Math.min(start + proposalBatchSize, order.length);
+                checkTimeBudget();
+                pool.invoke(new ProposeOffsets(order, proposals, start, start, end, parallelRandom.split()));
+                for(int i = start; i < end; i++) {
+                    int bucket = order[i];
+                    int anchor = proposals[i - start];
+                    if(anchor >= 0) {
+                        anchorOffset(bucket, anchor, offset);
+                    }
+                    if(anchor < 0 || !offsetWorks(bucket, offset)) {
+                        anchor = findOffsetRandom(bucket, random.nextInt(hashTableSize));
+                    }
+                    if(anchor < 0) {
+                        if(!displace(bucket, order, i)) {
+                            return false;
+                        }
+                        continue;
+                    }
+                    place(bucket, anchor);
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        return true;
+    }
+
+    private class ProposeOffsets extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int splitThreshold = 4;
+        private final int[] order;
+        private final int[] proposals;
+        private final int batchStart, start, end;
+        private final SplittableRandom random;
+
+        ProposeOffsets(int[] order, int[] proposals, int batchStart, int start, int end, SplittableRandom random) {
+            this.order = order;
+            this.proposals = proposals;
+            this.batchStart = batchStart;
+            this.start = start;
+            this.end = end;
+            this.random = random;
+        }
+
+        @Override
+        protected void compute() {
+            if(end - start <= splitThreshold) {
+                for(int i = start; i < end; i++) {
+                    proposals[i - batchStart] = findOffsetRandom(order[i], random.nextInt(hashTableSize));
+                }
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            SplittableRandom right = random.split();
+            invokeAll(new ProposeOffsets(order, proposals, batchStart, start, mid, random),
+                      new ProposeOffsets(order, proposals, batchStart, mid, end, right));
+        }
+    }
+
+    //grows the offset table after a failed attempt, or fails the build when it is out of attempts or time
+    private void tryCreateAgain() {
+        creationAttempts++;
+        stats.addRetry();
+        if(creationAttempts >= sizing.maxAttempts) {
+            fail("could not place every bucket in " + creationAttempts + " attempts");
+        }
+        checkTimeBudget();
+        listener.onRetry(stats);
+        for(int a = 0; a < dimension; a++) {
+            offsetTableDims[a] = sizing.grow(offsetTableDims[a]);
+        }
+        makeCoprime();
+        widthsChanged();
+        offsets = new PackedOffsets(dimension * offsetTableSize, hashTableDims);
+        hashFilled.clearAll();
+        slotBucket = null;
+        bucketChain = null;
+    }
+
+    //Distinct keys of one bucket that also agree mod the hash table widths land on the same slot whatever the bucket's offset is,
+    //it happens when they differ by a multiple of offsetTableDims * hashTableDims on each axis. Only a different offset table helps.
+    private boolean hasBadCollisions(int[] order) {
+        for(int i = 0; i < order.length; i++) {
+            if(checkForBadCollisions(order[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+    private boolean checkForBadCollisions(int bucket) {
+        int d = dimension;
+        int size = bucketSize[bucket];
+        int start = d * bucketStart[bucket];
+        if(size <= 16) {
+            for(int i = 1, k = start + d; i < size; i++, k += d) {
+                if(collidesInBucket(bucket, i, bucketKeys, k)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        int[] slots = new int[size];
+        for(int i = 0, k = start; i < size; i++, k += d) {
+            int slot = 0;
+            for(int a = 0; a < d; a++) {
+                slot = slot * hashTableDims[a] + hashMod[a].mod(bucketKeys[k + a]);
+            }
+            slots[i] = slot;
+        }
+        Arrays.sort(slots);
+        for(int i = 1; i < slots.length; i++) {
+            if(slots[i] == slots[i - 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+    //true if one of the first count keys of bucket agrees with the key at key[k] mod the hash table widths
+    private boolean collidesInBucket(int bucket, int count, int[] key, int k) {
+        int d = dimension;
+        next:
+        for(int i = 0, j = d * bucketStart[bucket]; i < count; i++, j += d) {
+            for(int a = 0; a < d; a++) {
+                if(hashMod[a].mod(bucketKeys[j + a]) != hashMod[a].mod(key[k + a])) {
+                    continue next;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void startDisplacements(int buckets) {
+        displacementsLeft = (int)Math.min(Integer.MAX_VALUE, (double)sizing.displacementBudget * buckets);
+        failedSearches = 0;
+    }
+    //Places bucket, whose search failed, at an offset where a single placed bucket is in its way, takes that one out and
+    //searches a place for it in turn, a chain of displacements that ends when a displaced bucket finds free slots of its own.
+    //A chain never takes out a bucket it moved before. The first placed buckets of order are the ones placed so far. Returns
+    //false when no offset is in the way of just one bucket, the attempt's displacement budget runs out or its searches fail
+    //too often to finish, the filled slots are only good for a retry then.
+    private boolean displace(int bucket, int[] order, int placed) {
+        if(displacementsLeft <= 0) {
+            return false;
+        }
+        int ring = failedSearches++ % failureWindow;
+        if(failedSearches > failureWindow && placed - recentFailures[ring] < failureSpan) {
+            return false;
+        }
+        recentFailures[ring] = placed;
+        if(slotBucket == null) {
+            slotBucket = new int[hashTableSize];
+            bucketChain = new int[offsetTableSize];
+            chain = 0;
+            for(int i = 0; i < placed; i++) {
+                int b = order[i];
+                getOffset(b, offset);
+                for(int j = 0, k = dimension * bucketStart[b]; j < bucketSize[b]; j++, k += dimension) {
+                    slotBucket[slot(bucketKeys, k, offset)] = b + 1;
+                }
+            }
+        }
+        chain++;
+        int b = bucket;
+        while(true) {
+            if(displacementsLeft <= 0) {
+                return false;
+            }
+            bucketChain[b] = chain;
+            int[] pattern = bucketPattern(b);
+            int anchor = singleBlockerAnchor(b, pattern);
+            if(anchor < 0) {
+                return false;
+            }
+            slotCoordinates(anchor, anchorCoordinates);
+            int blocked = blocker(b, pattern, anchorCoordinates, -1);
+            unplace(blocked);
+            place(b, anchor);
+            displacementsLeft--;
+            stats.addDisplaced(1);
+            b = blocked;
+            anchor = findOffsetRandom(b, random.nextInt(hashTableSize));
+            if(anchor >= 0) {
+                place(b, anchor);
+                return true;
+            }
+        }
+    }
+    //The free slot that, taken by the first key of bucket, leaves one placed bucket in the way of the others, the smallest such
+    //bucket of all free slots from a random start, but never one the current chain moved already. -1 if there is none.
+    private int singleBlockerAnchor(int bucket, int[] pattern) {
+        int scanStart = random.nextInt(hashTableSize);
+        int best = -1;
+        //taking out a bigger bucket than the one that failed only makes a harder one to place
+        int bestSize = bucketSize[bucket] + 1;
+        for(int pass = 0; pass < 2; pass++) {
+            int to = pass == 0 ? hashTableSize : scanStart;
+            for(int slot = hashFilled.nextClear(pass == 0 ? scanStart : 0); slot >= 0 && slot < to; slot = hashFilled.nextClear(slot + 1)) {
+                slotCoordinates(slot, anchorCoordinates);
+                int blocked = blocker(bucket, pattern, anchorCoordinates, bestSize);
+                if(blocked >= 0 && bucketChain[blocked] != chain) {
+                    best = slot;
+                    bestSize = bucketSize[blocked];
+                    if(bestSize == 1) {
+                        return best; //can't get any smaller
+                    }
+                }
+            }
+        }
+        return best;
+    }
+    //The one placed bucket in the way of bucket with its first key on the free slot at anchor, -1 if there are none, several,
+    //or one with at least maxSize keys.
+    private int blocker(int bucket, int[] pattern, int[] anchor, int maxSize) {
+        int d = dimension;
+        int[] w = hashTableDims;
+        int blocked = -1;
+        for(int p = d; p < d * bucketSize[bucket]; p += d) {
+            int slot = 0;
+            for(int a = 0; a < d; a++) {
+                int h = anchor[a] + pattern[p + a];
+                if(h >= w[a]) h -= w[a];
+                slot = slot * w[a] + h;
+            }
+            int owner = slotBucket[slot] - 1;
+            if(owner < 0 || owner == blocked) {
+                continue;
+            }
+            if(blocked >= 0 || (maxSize >= 0 && bucketSize[owner] >= maxSize)) {
+                return -1;
+            }
+            blocked = owner;
+        }
+        return blocked;
+    }
+    //frees the slots of a placed bucket
+    private void unplace(int bucket) {
+        getOffset(bucket, offset);
+        for(int i = 0, k = dimension * bucketStart[bucket]; i < bucketSize[bucket]; i++, k += dimension) {
+            int slot = slot(bucketKeys, k, offset);
+            hashFilled.clear(slot);
+            slotBucket[slot] = 0;
+        }
+    }
+    //gives bucket the offset that puts its first key on the free slot anchor and fills the slots of its keys
+    private void place(int bucket, int anchor) {
+        anchorOffset(bucket, anchor, offset);
+        setOffset(bucket, offset);
+        fillHashCheck(bucket, offset);
+    }
+    private void fillHashCheck(int bucket, int[] offset) {
+        for(int i = 0, k = dimension * bucketStart[bucket]; i < bucketSize[bucket]; i++, k += dimension) {
+            int slot = slot(bucketKeys, k, offset);
+            hashFilled.set(slot);
+            if(slotBucket != null) {
+                slotBucket[slot] = bucket + 1;
+            }
+        }
+    }
+    private boolean offsetWorks(int bucket, int[] offset) {
+        for(int i = 0, k = dimension * bucketStart[bucket]; i < bucketSize[bucket]; i++, k += dimension) {
+            if(hashFilled.get(slot(bucketKeys, k, offset))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Anchor slot of an offset for bucket that doesn't collide with the filled slots, the slot its first key gets, -1 if there is
+    //none within the probe limit. The scan for free slots starts at scanStart. Candidates are checked against the bucket's
+    //pattern, so a probe costs a few adds and bit tests per key. Only reads the engine, so proposal tasks can run it concurrently.
+    private int findOffsetRandom(int bucket, int scanStart) {
+        long start = System.nanoTime();
+        int probes = 0;
+        int d = dimension;
+        int[] pattern = bucketPattern(bucket);
+        int size = bucketSize[bucket];
+        int[] w = hashTableDims, ow = offsetTableDims;
+        int probeLimit = sizing.probeLimit == 0 ? Integer.MAX_VALUE : sizing.probeLimit;
+        int[] anchor = new int[d];
+
+        //neighbouring buckets hold neighbouring keys, so their offsets have a good chance of fitting this bucket too,
+        //first one step up along each axis, then one step down
+        int[] entry = new int[d];
+        for(int a = d - 1, rest = bucket; a >= 0; a--) {
+            entry[a] = rest % ow[a];
+            rest /= ow[a];
+        }
+        //slots of the first key already tried
+        int[] triedAnchors = new int[2 * d];
+        int triedCount = 0;
+        neighbors:
+        for(int direction = 0; direction < 2 * d; direction++) {
+            int axis = direction % d;
+            int neighbor = 0;
+            for(int a = 0; a < d; a++) {
+                int c = entry[a];
+                if(a == axis) {
+                    c = direction < d ? (c + 1 == ow[a] ? 0 : c + 1) : (c == 0 ? ow[a] - 1 : c - 1);
+                }
+                neighbor = neighbor * ow[a] + c;
+            }
+            int slot = 0;
+            for(int a = 0, o = d * neighbor; a < d; a++) {
+                int s = pattern[a] + offsets.get(o + a);
+                if(s >= w[a]) s -= w[a];
+                anchor[a] = s;
+                slot = slot * w[a] + s;
+            }
+            for(int i = 0; i < triedCount; i++) {
+                if(triedAnchors[i] == slot) {
+                    continue neighbors;
+                }
+            }
+            triedAnchors[triedCount++] = slot;
+            probes++;
+            if(!hashFilled.get(slot) && patternFits(pattern, size, anchor)) {
+                stats.addSearch(System.nanoTime() - start, probes, true, true);
+                return slot;
+            }
+        }
+
+        //walk the free slots from a random start, wrapping around once, and try putting the first key of the bucket in each
+        for(int pass = 0; pass < 2; pass++) {
+            int to = pass == 0 ? hashTableSize : scanStart;
+            for(int slot = hashFilled.nextClear(pass == 0 ? scanStart : 0); slot >= 0 && slot < to && probes < probeLimit; slot = hashFilled.nextClear(slot + 1)) {
+                slotCoordinates(slot, anchor);
+                probes++;
+                if(patternFits(pattern, size, anchor)) {
+                    stats.addSearch(System.nanoTime() - start, probes, false, true);
+                    return slot;
+                }
+            }
+        }
+        stats.addSearch(System.nanoTime() - start, probes, false, false);
+        return -1;
+    }
+    //The hash without offset of the bucket's first key, then where every other key lands relative to it on each axis,
+    //in [0, width) so adding it to a slot coordinate needs at most one subtraction. Made once per search, not per candidate.
+    private int[] bucketPattern(int bucket) {
+        int d = dimension;
+        int size = bucketSize[bucket];
+        int[] pattern = new int[d * size];
+        int first = d * bucketStart[bucket];
+        for(int a = 0; a < d; a++) {
+            pattern[a] = hashMod[a].mod(bucketKeys[first + a]);
+        }
+        for(int p = d, k = first + d; p < d * size; p += d, k += d) {
+            for(int a = 0; a < d; a++) {
+                int delta = hashMod[a].mod(bucketKeys[k + a]) - pattern[a];
+                pattern[p + a] = delta < 0 ? delta + hashTableDims[a] : delta;
+            }
+        }
+        return pattern;
+    }
+    //true if every key after the first lands on a free slot when the first lands on anchor, stops at the first filled one
+    private boolean patternFits(int[] pattern, int size, int[] anchor) {
+        int d = dimension;
+        if(d == 3) {
+            return patternFits3(pattern, size, anchor[0], anchor[1], anchor[2]);
+        }
+        int[] w = hashTableDims;
+        SlotBitSet filled = hashFilled;
+        for(int p = d; p < d * size; p += d) {
+            int slot = 0;
+            for(int a = 0; a < d; a++) {
+                int h = anchor[a] + pattern[p + a];
+                if(h >= w[a]) h -= w[a];
+                slot = slot * w[a] + h;
+            }
+            if(filled.get(slot)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    //patternFits() unrolled for the 3D table. Most of a build's time goes to the free slot scan, where looping over the axes
+    //made 3D builds about a fifth slower than unrolled code.
+    private boolean patternFits3(int[] pattern, int size, int sx, int sy, int sz) {
+        int wx = hashTableDims[0], wy = hashTableDims[1], wz = hashTableDims[2];
+        SlotBitSet filled = hashFilled;
+        for(int p = 3; p < 3 * size; p += 3) {
+            int hx = sx + pattern[p], hy = sy + pattern[p + 1], hz = sz + pattern[p + 2];
+            if(hx >= wx) hx -= wx;
+            if(hy >= wy) hy -= wy;
+            if(hz >= wz) hz -= wz;
+            if(filled.get((hx * wy + hy) * wz + hz)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    //writes the per axis coordinates of a row major slot of the hash table to coordinates
+    private void slotCoordinates(int slot, int[] coordinates) {
+        //unrolled for the 3D table like patternFits3()
+        if(dimension == 3) {
+            int wy = hashTableDims[1], wz = hashTableDims[2];
+            int yz = wy * wz;
+            int x = slot / yz, rest = slot - x * yz;
+            int y = rest / wz;
+            coordinates[0] = x;
+            coordinates[1] = y;
+            coordinates[2] = rest - y * wz;
+            return;
+        }
+        for(int a = dimension - 1; a > 0; a--) {
+            int rest = slot / hashTableDims[a];
+            coordinates[a] = slot - rest * hashTableDims[a];
+            slot = rest;
+        }
+        coordinates[0] = slot;
+    }
+    //writes the offset that puts the first key of bucket on the slot anchor to offset, reduced like the stored offsets
+    private void anchorOffset(int bucket, int anchor, int[] offset) {
+        slotCoordinates(anchor, offset);
+        for(int a = 0, k = dimension * bucketStart[bucket]; a < dimension; a++) {
+            int component = offset[a] - hashMod[a].mod(bucketKeys[k + a]);
+            offset[a] = component < 0 ? component + hashTableDims[a] : component;
+        }
+    }
+
+    //linear index of the offset table entry of the key at key[k], which is also its bucket
+    private int bucketIndex(int[] key, int k) {
+        int bucket = 0;
+        for(int a = 0; a < dimension; a++) {
+            bucket = bucket * offsetTableDims[a] + offsetMod[a].mod(key[k + a]);
+        }
+        return bucket;
+    }
+    //row major slot of the key at key[k] with offset, both the hash without offset and offset are reduced so each sum needs
+    //one subtraction at most
+    private int slot(int[] key, int k, int[] offset) {
+        int slot = 0;
+        for(int a = 0; a < dimension; a++) {
+            int h = hashMod[a].mod(key[k + a]) + offset[a];
+            if(h >= hashTableDims[a]) h -= hashTableDims[a];
+            slot = slot * hashTableDims[a] + h;
+        }
+        return slot;
+    }
+    private void getOffset(int bucket, int[] offset) {
+        for(int a = 0, o = dimension * bucket; a < dimension; a++) {
+            offset[a] = offsets.get(o + a);
+        }
+    }
+    private void setOffset(int bucket, int[] offset) {
+        for(int a = 0, o = dimension * bucket; a < dimension; a++) {
+            offsets.set(o + a, offset[a]);
+        }
+    }
+}
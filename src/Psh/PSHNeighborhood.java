@@ -0,0 +1,34 @@
+package Psh;
+
+/**
+ * The reusable output of a stencil query: the slot of every neighbour of a PSHStencil and, after a query on a map, which of
+ * them are keys. Make one per thread and stencil and pass it to every query, queries allocate nothing.
+ */
+public final class PSHNeighborhood {
+
+    public final PSHStencil stencil;
+    //slot of neighbour i, after a map query -1 for a neighbour that isn't a key
+    public final int[] slots;
+    //bit i is set if neighbour i is a key, only set by map queries
+    public long present;
+
+    //per axis scratch of a query: the coordinate plus each distinct delta of the stencil reduced by the hash and offset table widths
+    final int[][] hash0 = new int[3][];
+    final int[][] entry = new int[3][];
+
+    public PSHNeighborhood(PSHStencil stencil) {
+        this.stencil = stencil;
+        slots = new int[stencil.size];
+        for(int a = 0; a < 3; a++) {
+            hash0[a] = new int[stencil.axisDeltas[a].length];
+            entry[a] = new int[stencil.axisDeltas[a].length];
+        }
+    }
+
+    public boolean isPresent(int i) {
+        return (present & (1L << i)) != 0;
+    }
+    public int presentCount() {
+        return Long.bitCount(present);
+    }
+}
@@ -2,10 +2,16 @@ package Psh;
 
 import Psh.Vec3I;
 import Psh.MathGeneral;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Random;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Created by Skinner on 8/9/14.
@@ -24,380 +30,586 @@ import java.util.Random;
  *  Then to get the index into your hash table, just use PSHOffsetTable.hash(key).
  *  That's it.
  *
+ *  For hot loops use hash(x, y, z) instead, it allocates nothing and returns the slot packed as
+ *  (x * hashTableWidth + y) * hashTableWidth + z, so the hash table can be a flat array of hashTableSize() = hashTableWidth^3.
+ *  hashFast(x, y, z) gives the same slot without integer divisions, many keys at once can be hashed with the batch hash()
+ *  taking coordinate arrays or an IntBuffer of x,y,z triples, which use the same division free path.
+ *
  *  If you want to update the offsetable, you can do so by using the updateOffsets() with the modified list of spatial data.
+ *
+ *  Big tables can be built on several threads with PSHOffsetTable.builder().parallel(threads).build(list).
+ *
+ *  A table built with PSHOffsetTable.builder().incremental(true) keeps its buckets after construction and can take single edits
+ *  with insert() and remove(). Only the bucket of the edited key gets a new offset, the returned PSHUpdateResult lists the keys
+ *  that changed slot. The table is only rebuilt from scratch when it gets too full or too empty, or when a bucket can't be placed.
+ *
+ *  Keys don't have to be collected in an ArrayList first: PSHOffsetTable.builder() also takes them one at a time, from an Iterator
+ *  or Spliterator, as packed x,y,z int arrays or IntBuffers, or straight from a file of little endian x,y,z ints, and keeps
+ *  them packed in int arrays until build(). No Vec3I is made per key while building.
+ *
+ *  Repeated keys are merged before building by default, builder().duplicates(Duplicates.REJECT) makes them an error instead.
+ *  SpatialKeySet deduplicates keys in linear time if you need that before handing them over.
+ *
+ *  How big the two tables are and how many attempts a build gets is set with builder().sizing(PSHSizingPolicy), builder().autoTune(budget)
+ *  looks for the smallest offset table that still builds within the budget.
+ *
+ *  Both tables are cubes by default. For keys in a flat slab or a long corridor a cube wastes slots, a sizing policy with
+ *  fitBounds(true) gives each axis its own width, shaped like the keys' bounding box. The widths are then in hashTableDims
+ *  and offsetTableDims and a slot is packed as (x * hashTableDims.y + y) * hashTableDims.z + z.
+ *
+ *  Builds are reproducible: builder().seed(seed) fixes the random choices of the offset search, so the same keys in the same
+ *  order give the same table on every run. A serial build and a parallel one take different paths and give different tables,
+ *  but a parallel build gives the same table for any number of threads. An unseeded table picks a seed of its own, getSeed() tells which.
+ *
+ *  getBuildStats() tells how the last build or update went, a PSHBuildListener set on the builder hears about retries as they happen.
+ *
+ *  hash(x, y, z) packs slots in row major order unless builder().slotLayout() picks another PSHSlotLayout, BRICK or MORTON keep
+ *  keys that hash next to each other in 3D in the same cache lines of a value array. The layout only changes the linear slots,
+ *  hash(Vec3I) and the offsets are the same.
+ *
+ *  hashStencil() hashes all neighbours of a key in a PSHStencil in one call, the maps' getNeighbors() also checks which are keys.
+ *
+ *  The build itself is done by PSHEngine for any number of dimensions, this class adds the unrolled 3D hash functions, the slot
+ *  layouts and the 3D ways of handing over keys. 2D and 4D keys have their own tables, PSHOffsetTable2D and PSHOffsetTable4D.
+ *
+ *  For worlds too big to rebuild or keep in memory as one table, ChunkedPSHTable gives every chunk of space its own table under
+ *  a top level table over the chunks, so edits rebuild one chunk and chunks can be written out and read back one at a time.
+ *  PSHTableCache keeps built tables so that building one for a key set seen before is a lookup.
  */
 
 public class PSHOffsetTable {
 
-    private ArrayList<Vec3I> elements;
-    private OffsetBucket offsetBuckets[][][];
-    public Vec3I offsetTable[][][];
-    private boolean hashFilled[][][];
+    //builds the offsets and, for an incremental table, keeps the buckets and filled slots that insert() and remove() work on
+    private final PSHEngine engine;
+    //the engine's offsets packed as x,y,z triples, entry b starts at 3 * b, each component stored mod the hash table width of
+    //its axis in a byte, char or int depending on the widest axis
+    private PackedOffsets offsetTable;
+    //the width of each table on every axis for cubic tables, the widest axis of hashTableDims and offsetTableDims otherwise
     public int offsetTableWidth;
     public int hashTableWidth;
+    //per axis widths of the two tables, all equal to the width above unless the sizing policy fits the tables to the keys
+    public final Vec3I hashTableDims = new Vec3I();
+    public final Vec3I offsetTableDims = new Vec3I();
+    //division free reductions by the widths of each axis, the engine's, taken over by tableChanged()
+    private FastMod hashModX, hashModY, hashModZ;
+    private FastMod offsetModX, offsetModY, offsetModZ;
+    private final PSHSlotLayout slotLayout;
+    //slot of the hash (x,y,z) is layoutX[x] + layoutY[y] + layoutZ[z], all null for ROW_MAJOR
+    private int[] layoutX, layoutY, layoutZ;
+    private int layoutSize;
     int n;
-    private static int offsetFindLimit =120;
-    private static int tableCreateLimit = 10;
-    private int creationAttempts = 0;
-
-    Random random = new Random(System.currentTimeMillis());
+    //builds tried by Builder.autoTune() after the first one
+    private static final int autoTuneTrials = 8;
 
-    private class OffsetBucket {
-        List<Vec3I> contents = new LinkedList<>();
-        Vec3I index; //index in offset table
-        OffsetBucket(Vec3I index) {
-            this.index = index;
-        }
+    //what building does with a key that was given more than once
+    public enum Duplicates {
+        MERGE,  //keep one of them
+        REJECT  //throw an IllegalArgumentException
     }
 
     public void updateOffsets(ArrayList<Vec3I> elements) {
-        int size = elements.size();
-        n = size;
-        hashTableWidth = calcHashTableWidth(size);
-        int oldOffsetWidth = offsetTableWidth;
-        offsetTableWidth = calcOffsetTableWidth(size); //this breaks if original creation didn't use initial table calculated width
-
-        hashFilled = new boolean[hashTableWidth][hashTableWidth][hashTableWidth];
-        offsetBuckets = new OffsetBucket[offsetTableWidth][offsetTableWidth][offsetTableWidth];
+        updateOffsets(PackedKeys.of(elements));
+    }
+    //updateOffsets() with the keys added to keys since its last build, keys is left empty
+    public void updateOffsets(Builder keys) {
+        updateOffsets(keys.takeKeys());
+    }
+    private void updateOffsets(PackedKeys elements) {
+        engine.update(elements);
+        tableChanged();
+    }
 
+    public static Builder builder() {
+        return new Builder();
+    }
 
-        this.elements = elements;
+    public static class Builder {
+        //files of coordinates are mapped this many bytes at a time, a whole number of x,y,z triples
+        private static final int mappedChunkBytes = 12 << 24;
+        private int parallelism = 1;
+        private PSHBuildListener listener = PSHEngine.noListener;
+        //the rest is read by PSHTableCache to tell builds apart
+        boolean incremental = false;
+        Duplicates duplicates = Duplicates.MERGE;
+        boolean seeded = false;
+        long seed;
+        PSHSizingPolicy sizing = PSHSizingPolicy.DEFAULT;
+        long autoTuneBudget = 0;
+        PSHSlotLayout slotLayout = PSHSlotLayout.ROW_MAJOR;
+        private PackedKeys keys;
+
+        //Number of threads used to calculate offsets, 1 (the default) builds on the calling thread. A seeded parallel build
+        //gives the same table for any number of threads, but not the one a serial build gives: it proposes offsets in batches
+        //against slightly stale filled slots, which costs from a few percent to about a fifth more probes at tight sizings.
+        public Builder parallel(int parallelism) {
+            if(parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be at least 1 but was " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
 
-        if(oldOffsetWidth != offsetTableWidth) {
-            offsetTable = new Vec3I[offsetTableWidth][offsetTableWidth][offsetTableWidth]; clearOffsstsToZero();
-            calculateOffsets();
+        //keep the buckets and filled slots after building so the table accepts insert() and remove(), this costs memory
+        public Builder incremental(boolean incremental) {
+            this.incremental = incremental;
+            return this;
+        }
 
-            cleanUp();
+        public Builder listener(PSHBuildListener listener) {
+            this.listener = listener == null ? PSHEngine.noListener : listener;
+            return this;
         }
-        else {
 
+        //Seed for the offset search. Without one every table gets a seed of its own, which getBuildStats() reports so the
+        //build can be repeated.
+        public Builder seed(long seed) {
+            this.seed = seed;
+            this.seeded = true;
+            return this;
+        }
 
-            putElementsIntoBuckets();
-            List<OffsetBucket> bucketList = createSortedBucketList();
+        public Builder sizing(PSHSizingPolicy sizing) {
+            this.sizing = sizing == null ? PSHSizingPolicy.DEFAULT : sizing;
+            return this;
+        }
 
-            for(int i = 0; i < bucketList.size(); i++) {
-                OffsetBucket bucket = bucketList.get(i);
-                Vec3I offset = offsetTable[bucket.index.x][bucket.index.y][bucket.index.z];
-                if(!OffsetWorks(bucket, offset)) {
-                    offset = findOffsetRandom(bucket);
-                    if(offset == null) {
-                        tryCreateAgain();
-                        break;
-                    }
-                    offsetTable[bucket.index.x][bucket.index.y][bucket.index.z] = offset;
-                }
-                fillHashCheck(bucket, offset);
-//            if(checkForBadCollisions(bucket)) {
-//                tryCreateAgain();
-//                break;
-//            }
+        //Build with the smallest offset table that builds within timeBudgetNanos: after a build with the sizing policy, builds
+        //with ever more keys per offset table entry are tried and the smallest table that made it is kept. The trials fail fast
+        //instead of retrying and aren't reported to the listener. Every build is held to the budget, so tuning as a whole can
+        //take up to 9 times as long. 0, the default, builds once with the sizing policy.
+        public Builder autoTune(long timeBudgetNanos) {
+            if(timeBudgetNanos < 0) {
+                throw new IllegalArgumentException("time budget can't be negative but was " + timeBudgetNanos);
             }
+            this.autoTuneBudget = timeBudgetNanos;
+            return this;
         }
 
+        //how hash(x, y, z) lays out the slots, ROW_MAJOR by default
+        public Builder slotLayout(PSHSlotLayout slotLayout) {
+            if(slotLayout == null) {
+                throw new IllegalArgumentException("slot layout can't be null");
+            }
+            this.slotLayout = slotLayout;
+            return this;
+        }
 
-    }
-
-    private int calcHashTableWidth(int size) {
-        float d = (float)Math.pow(size*1.1, 1.0f/3);
-        return (int)(d + 1.1f);
-    }
-    private int calcOffsetTableWidth(int size) {
-        float d = (float)Math.pow(size/4, 1.0f/3);
-        int width = (int)(d + 1.1f);
-        while(MathGeneral.gcd(width, hashTableWidth) > 1) { //make sure there are no common facctors
-            width++;
+        //what to do with keys that are given more than once, MERGE by default
+        public Builder duplicates(Duplicates duplicates) {
+            if(duplicates == null) {
+                throw new IllegalArgumentException("duplicates policy can't be null");
+            }
+            this.duplicates = duplicates;
+            return this;
         }
-        return width;
 
-    }
-    public PSHOffsetTable(ArrayList<Vec3I> elements) {
-        int size = elements.size();
-        n=size;
-        hashTableWidth = calcHashTableWidth(size);
-        offsetTableWidth = calcOffsetTableWidth(size);
+        //builds a table for elements, keys added to this builder are left alone
+        public PSHOffsetTable build(ArrayList<Vec3I> elements) {
+            return build(PackedKeys.of(elements));
+        }
 
-        hashFilled = new boolean[hashTableWidth][hashTableWidth][hashTableWidth];
-        offsetBuckets = new OffsetBucket[offsetTableWidth][offsetTableWidth][offsetTableWidth];
+        //builds a table for the keys added since the last build, the builder is left empty for the next one
+        public PSHOffsetTable build() {
+            return build(takeKeys());
+        }
 
-        offsetTable = new Vec3I[offsetTableWidth][offsetTableWidth][offsetTableWidth]; clearOffsstsToZero();
-        this.elements = elements;
+        PSHOffsetTable build(PackedKeys elements) {
+            if(autoTuneBudget > 0) {
+                return PSHOffsetTable.autoTune(elements, this);
+            }
+            return new PSHOffsetTable(elements, this, sizing, listener);
+        }
 
-        calculateOffsets();
+        public Builder add(int x, int y, int z) {
+            keys().add(x, y, z);
+            return this;
+        }
+        public Builder add(Vec3I key) {
+            keys().add(key.x, key.y, key.z);
+            return this;
+        }
+        public Builder addAll(Iterator<? extends Vec3I> elements) {
+            PackedKeys keys = keys();
+            while(elements.hasNext()) {
+                Vec3I key = elements.next();
+                keys.add(key.x, key.y, key.z);
+            }
+            return this;
+        }
+        public Builder addAll(Spliterator<? extends Vec3I> elements) {
+            PackedKeys keys = keys();
+            long estimate = elements.estimateSize();
+            if(estimate != Long.MAX_VALUE && keys.size + estimate < Integer.MAX_VALUE / 3) {
+                keys.ensureCapacity(keys.size + (int)estimate);
+            }
+            elements.forEachRemaining(key -> keys.add(key.x, key.y, key.z));
+            return this;
+        }
+        //adds count keys packed as x,y,z triples in xyz starting at xyz[from]
+        public Builder addAll(int[] xyz, int from, int count) {
+            if(from < 0 || count < 0 || from + 3L * count > xyz.length) {
+                throw new IndexOutOfBoundsException(count + " keys from " + from + " don't fit in " + xyz.length + " ints");
+            }
+            keys().add(xyz, from, count);
+            return this;
+        }
+        //adds the keys packed as x,y,z triples between the position and the limit of xyz, the buffer's position is left where it was
+        public Builder addAll(IntBuffer xyz) {
+            if(xyz.remaining() % 3 != 0) {
+                throw new IllegalArgumentException(xyz.remaining() + " ints aren't a whole number of x,y,z triples");
+            }
+            PackedKeys keys = keys();
+            int count = xyz.remaining() / 3;
+            keys.ensureCapacity(keys.size + count);
+            xyz.duplicate().get(keys.coordinates, 3 * keys.size, 3 * count);
+            keys.size += count;
+            return this;
+        }
+        //adds the keys of a file of little endian x,y,z ints, the file is mapped a chunk at a time rather than read onto the heap
+        public Builder addAll(Path coordinates) throws IOException {
+            try(FileChannel channel = FileChannel.open(coordinates, StandardOpenOption.READ)) {
+                long bytes = channel.size();
+                if(bytes % 12 != 0) {
+                    throw new IOException(coordinates + " isn't a whole number of x,y,z int triples");
+                }
+                for(long position = 0; position < bytes; position += mappedChunkBytes) {
+                    long chunk = Math.min(mappedChunkBytes, bytes - position);
+                    addAll(channel.map(FileChannel.MapMode.READ_ONLY, position, chunk).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer());
+                }
+            }
+            return this;
+        }
+        //number of keys added since the last build
+        public int keyCount() {
+            return keys == null ? 0 : keys.size;
+        }
 
-        cleanUp();
+        private PackedKeys keys() {
+            if(keys == null) {
+                keys = new PackedKeys();
+            }
+            return keys;
+        }
+        PackedKeys takeKeys() {
+            PackedKeys taken = keys();
+            keys = null;
+            return taken;
+        }
+    }
 
 
+    public PSHOffsetTable(ArrayList<Vec3I> elements) {
+        this(PackedKeys.of(elements), new Builder(), PSHSizingPolicy.DEFAULT, PSHEngine.noListener);
     }
-    private void cleanUp() {
-        this.elements = null;
-        this.offsetBuckets = null;
-        this.hashFilled = null;
 
+    private PSHOffsetTable(PackedKeys elements, Builder builder, PSHSizingPolicy sizing, PSHBuildListener listener) {
+        slotLayout = builder.slotLayout;
+        long seed = builder.seeded ? builder.seed : ThreadLocalRandom.current().nextLong();
+        engine = new PSHEngine(3, sizing, seed, builder.parallelism, builder.incremental, builder.duplicates == Duplicates.REJECT, listener);
+        engine.build(elements, PSHBuildStats.Kind.BUILD);
+        tableChanged();
     }
-    private void putElementsIntoBuckets() {
-        for(int i = 0; i < n; i++) {
-            Vec3I ele = elements.get(i);
-            Vec3I index = hash1(ele);
-            OffsetBucket bucket = offsetBuckets[index.x][index.y][index.z];
-            if(bucket == null) {
-                bucket = new OffsetBucket(new Vec3I(index.x, index.y, index.z));
-                offsetBuckets[index.x][index.y][index.z] = bucket;
-            }
-            bucket.contents.add(ele);
+    //a table that was built before, see PSHTableIO.read()
+    PSHOffsetTable(Vec3I hashTableDims, Vec3I offsetTableDims, int[] offsetTable, int n, PSHSlotLayout slotLayout) {
+        this.slotLayout = slotLayout;
+        engine = new PSHEngine(3, PSHSizingPolicy.DEFAULT, 0, 1, false, false, PSHEngine.noListener);
+        PackedOffsets offsets = new PackedOffsets(offsetTable.length, hashTableDims);
+        for(int i = 0; i < offsetTable.length; i++) {
+            offsets.set(i, offsetTable[i]);
         }
+        engine.load(new int[] {hashTableDims.x, hashTableDims.y, hashTableDims.z}, new int[] {offsetTableDims.x, offsetTableDims.y, offsetTableDims.z}, offsets, n);
+        tableChanged();
     }
-    private List<OffsetBucket> createSortedBucketList() {
-        List<OffsetBucket> bucketList = new ArrayList<>(offsetTableWidth*offsetTableWidth*offsetTableWidth);//(offsetTableWidth*offsetTableWidth*offsetTableWidth);
 
-        for(int x = 0; x < offsetTableWidth; x++ ) { //put the buckets into the bucketlist and sort
-            for(int y = 0; y < offsetTableWidth; y++ ) {
-                for(int z = 0; z  < offsetTableWidth; z++ ) {
-                    if(offsetBuckets[x][y][z] != null) {
-                        bucketList.add(offsetBuckets[x][y][z]);
-                    }
+    private static PSHOffsetTable autoTune(PackedKeys elements, Builder builder) {
+        PSHSizingPolicy base = builder.sizing.toBuilder().timeBudgetNanos(builder.autoTuneBudget).build();
+        //the policy's own sizing has to work within the budget, otherwise there is nothing to return and this throws
+        PSHOffsetTable best = new PSHOffsetTable(elements, builder, base, builder.listener);
+        float good = base.keysPerOffset;
+        float bad = Float.POSITIVE_INFINITY;
+        int goodWidth = base.offsetTableWidth(elements.size, 3);
+        //double the keys per entry until a build fails, then bisect between the last success and the first failure
+        for(int trial = 0; trial < autoTuneTrials && goodWidth > 1; trial++) {
+            float keysPerOffset = bad == Float.POSITIVE_INFINITY ? 2 * good : (good + bad) / 2;
+            PSHSizingPolicy policy = base.toBuilder().keysPerOffset(keysPerOffset).maxAttempts(1).build();
+            int width = policy.offsetTableWidth(elements.size, 3);
+            if(width >= goodWidth) {
+                if(bad != Float.POSITIVE_INFINITY) {
+                    break; //bisected down to a single width
                 }
+                good = keysPerOffset;
+                continue;
+            }
+            try {
+                PSHOffsetTable table = new PSHOffsetTable(elements, builder, policy, PSHEngine.noListener);
+                if(table.offsetTableSize() < best.offsetTableSize()) {
+                    best = table;
+                }
+                good = keysPerOffset;
+                goodWidth = width;
+            }
+            catch(IllegalStateException e) {
+                bad = keysPerOffset;
             }
         }
-        quicksort(bucketList, 0, bucketList.size()-1);
-        return bucketList;
+        //later updates and rebuilds of the table keep the sizing it was tuned to but not the budget or the fail fast trials
+        best.engine.sizing = builder.sizing.toBuilder().keysPerOffset(best.engine.sizing.keysPerOffset).build();
+        return best;
+    }
+    //how the last build, updateOffsets() or rebuild went, null for a table read from a file.
+    //Offset searches of incremental inserts since then are added to it.
+    public PSHBuildStats getBuildStats() {
+        return engine.stats;
+    }
+    //seed of the random offset search, give it to builder().seed() to build this table again from the same keys
+    public long getSeed() {
+        return engine.seed;
     }
-    private void calculateOffsets() {
-
-        putElementsIntoBuckets();
-        List<OffsetBucket> bucketList = createSortedBucketList();
-
-
 
-        for(int i = 0; i < bucketList.size(); i++) {
-            OffsetBucket bucket = bucketList.get(i);
-//            if(checkForBadCollisions(bucket)) {
-//                tryCreateAgain();
-//                break;
-//            }
-            //Vec3I offset = findOffset(bucket);
-            Vec3I offset = findOffsetRandom(bucket);
+    //Adds key to an incremental table. If the key's slot is taken, its bucket gets a new offset.
+    //Returns the keys that changed slot, or PSHUpdateResult.rebuilt if the whole table had to be rebuilt.
+    public PSHUpdateResult insert(Vec3I key) {
+        checkIncremental();
+        return updateResult(engine.insert(new int[] {key.x, key.y, key.z}));
+    }
 
-            if(offset == null) {
-                tryCreateAgain();
-                break;
-            }
-            offsetTable[bucket.index.x][bucket.index.y][bucket.index.z] = offset;
-            fillHashCheck(bucket, offset);
+    //Removes key from an incremental table, no other key changes slot unless the table got empty enough to be rebuilt.
+    public PSHUpdateResult remove(Vec3I key) {
+        checkIncremental();
+        return updateResult(engine.remove(new int[] {key.x, key.y, key.z}));
+    }
 
+    //what the engine's last edit did, with the slots in the table's slot layout
+    private PSHUpdateResult updateResult(boolean rebuilt) {
+        if(rebuilt) {
+            tableChanged();
+            return PSHUpdateResult.REBUILT;
         }
-
+        n = engine.n;
+        int[] moved = engine.editedKeys, from = engine.editedFrom, to = engine.editedTo;
+        if(from.length == 0) {
+            return PSHUpdateResult.UNCHANGED;
+        }
+        Vec3I[] keys = new Vec3I[from.length];
+        int[] oldSlots = new int[from.length];
+        int[] newSlots = new int[from.length];
+        for(int i = 0; i < from.length; i++) {
+            keys[i] = new Vec3I(moved[3 * i], moved[3 * i + 1], moved[3 * i + 2]);
+            oldSlots[i] = from[i] < 0 ? -1 : layoutSlot(from[i]);
+            newSlots[i] = to[i] < 0 ? -1 : layoutSlot(to[i]);
+        }
+        return new PSHUpdateResult(false, keys, oldSlots, newSlots);
     }
-    public void quicksort(List<OffsetBucket> bucketList, int start, int end) {
-        int i = start;
-        int j = end;
-        int pivot = bucketList.get(start + (end - start)/2).contents.size();
-        while(i<=j) {
-            while(bucketList.get(i).contents.size() > pivot) {
-                i++;
-            }
-            while(bucketList.get(j).contents.size() < pivot) {
-                j--;
-            }
-            if (i <= j) {
-                OffsetBucket temp = bucketList.get(i);
-                bucketList.set(i, bucketList.get(j));
-                bucketList.set(j,temp);
-                i++;
-                j--;
-            }
 
+    private void checkIncremental() {
+        if(!engine.incremental) {
+            throw new IllegalStateException("insert and remove need a table built with PSHOffsetTable.builder().incremental(true)");
         }
-        if (start < j)
-            quicksort(bucketList, start, j);
-        if (i < end)
-            quicksort(bucketList, i, end);
     }
 
-    private void tryCreateAgain() {
-        creationAttempts++;
-        if(creationAttempts >= tableCreateLimit) {
-            throw new RuntimeException("this class doesn't fucking work bad fucking code idiot");}
-        resizeOffsetTable();
-        clearFilled();
-        calculateOffsets();
-
+    public Vec3I hash(Vec3I key) {
+        return hash(key.x, key.y, key.z, new Vec3I());
     }
-
-    private boolean checkForBadCollisions(OffsetBucket bucket) {
-        ArrayList<Vec3I> testList = new ArrayList<>(10);
-        for(int i = 0; i < bucket.contents.size(); i++) {
-
-            Vec3I ele = bucket.contents.get(i);
-            Vec3I hash = hash0(ele);
-            if(testList.contains(hash))  {
-                return true;
-
-            }
-            else{
-                testList.add(hash);
-            }
-
+    //writes the hash of (x,y,z) into out and returns it, nothing is allocated
+    public Vec3I hash(int x, int y, int z, Vec3I out) {
+        Vec3I w = hashTableDims, ow = offsetTableDims;
+        int o = 3 * ((MathGeneral.mod(x, ow.x) * ow.y + MathGeneral.mod(y, ow.y)) * ow.z + MathGeneral.mod(z, ow.z));
+        out.x = MathGeneral.mod(MathGeneral.mod(x, w.x) + offsetTable.get(o), w.x);
+        out.y = MathGeneral.mod(MathGeneral.mod(y, w.y) + offsetTable.get(o + 1), w.y);
+        out.z = MathGeneral.mod(MathGeneral.mod(z, w.z) + offsetTable.get(o + 2), w.z);
+        return out;
+    }
+    //linear index of the hash of (x,y,z) into a flat hash table of hashTableSize() slots in the table's slot layout, nothing is allocated
+    public int hash(int x, int y, int z) {
+        Vec3I w = hashTableDims, ow = offsetTableDims;
+        int o = 3 * ((MathGeneral.mod(x, ow.x) * ow.y + MathGeneral.mod(y, ow.y)) * ow.z + MathGeneral.mod(z, ow.z));
+        int hx = MathGeneral.mod(MathGeneral.mod(x, w.x) + offsetTable.get(o), w.x);
+        int hy = MathGeneral.mod(MathGeneral.mod(y, w.y) + offsetTable.get(o + 1), w.y);
+        int hz = MathGeneral.mod(MathGeneral.mod(z, w.z) + offsetTable.get(o + 2), w.z);
+        return layoutSlot(hx, hy, hz);
+    }
+    //Batch version of hash(x, y, z) for keys given as separate coordinate arrays: the slot of (xs[from + i], ys[from + i], zs[from + i])
+    //is written to out[outFrom + i] for i below count. Nothing is allocated and the table is read only once per batch.
+    public void hash(int[] xs, int[] ys, int[] zs, int from, int[] out, int outFrom, int count) {
+        if(from < 0 || count < 0 || from + count > xs.length || from + count > ys.length || from + count > zs.length || outFrom < 0 || outFrom + count > out.length) {
+            throw new IndexOutOfBoundsException("batch of " + count + " from " + from + " into " + outFrom + " doesn't fit the arrays");
         }
-        return false;
-
-    }
-    private void fillHashCheck(OffsetBucket bucket, Vec3I offset) {
-        for(int i = 0; i < bucket.contents.size(); i++) {
-            Vec3I ele = bucket.contents.get(i);
-            Vec3I hash = hash(ele, offset);
-            hashFilled[hash.x][hash.y][hash.z] = true;
-        }
-
-    }
-
-    private Vec3I findOffsetRandom(OffsetBucket bucket) {
-
-        ArrayList<Vec3I> badOffests = new ArrayList<>();
-        Vec3I offset = new Vec3I(0);
-        Vec3I index;
-        index = Vec3I.add(bucket.index, new Vec3I(1,0,0)); index = hash1(index);
-        offset = offsetTable[index.x][index.y][index.z];
-        if(!badOffests.contains(offset)){if(OffsetWorks(bucket, offset)) return offset; badOffests.add(offset);}
-        index = Vec3I.add(bucket.index, new Vec3I(0,1,0)); index = hash1(index);
-        offset = offsetTable[index.x][index.y][index.z];
-        if(!badOffests.contains(offset)){if(OffsetWorks(bucket, offset)) return offset; badOffests.add(offset);}
-        index = Vec3I.add(bucket.index, new Vec3I(0,0,1)); index = hash1(index);
-        offset = offsetTable[index.x][index.y][index.z];
-        if(!badOffests.contains(offset)){if(OffsetWorks(bucket, offset)) return offset; badOffests.add(offset);}
-        index = Vec3I.add(bucket.index, new Vec3I(-1,0,0)); index = hash1(index);
-        offset = offsetTable[index.x][index.y][index.z];
-        if(!badOffests.contains(offset)){if(OffsetWorks(bucket, offset)) return offset; badOffests.add(offset);}
-        index = Vec3I.add(bucket.index, new Vec3I(0,-1,0)); index = hash1(index);
-        offset = offsetTable[index.x][index.y][index.z];
-        if(!badOffests.contains(offset)){if(OffsetWorks(bucket, offset)) return offset; badOffests.add(offset);}
-        index = Vec3I.add(bucket.index, new Vec3I(0,0,-1)); index = hash1(index);
-        offset = offsetTable[index.x][index.y][index.z];
-        if(!badOffests.contains(offset)){if(OffsetWorks(bucket, offset)) return offset; badOffests.add(offset);}
-
-//        Vec3I emptyHash = findAEmptyHash();
-//        offset = Vec3I.subtract(emptyHash , hash0(bucket.contents.get(0)));
-//        if(OffsetWorks(bucket, offset)) return offset;
-
-        Vec3I seed = new Vec3I(random.nextInt(hashTableWidth) - hashTableWidth/2, random.nextInt(hashTableWidth) - hashTableWidth/2, random.nextInt(hashTableWidth) - hashTableWidth/2);
-        for(int i = 0; i <= 5; i++) {
-            for(int x = i; x < hashTableWidth; x+=5 ) {
-                for(int y = i; y < hashTableWidth; y+=5 ) {
-                    for(int z = i; z  < hashTableWidth; z+=5 ) {
-                        index = Vec3I.add(seed, new Vec3I(x,y,z));
-                        index = hash0(index);
-                        if(!hashFilled[index.x][index.y][index.z]) {
-                            offset = Vec3I.subtract(index , hash0(bucket.contents.get(0)));
-                            if(OffsetWorks(bucket, offset)) return offset;
-                        }
-                    }
-                }
-            }
+        FastMod hmx = hashModX, hmy = hashModY, hmz = hashModZ, omx = offsetModX, omy = offsetModY, omz = offsetModZ;
+        int wx = hmx.divisor, wy = hmy.divisor, wz = hmz.divisor;
+        int oy = omy.divisor, oz = omz.divisor;
+        PackedOffsets offsets = offsetTable;
+        for(int i = 0; i < count; i++) {
+            int x = xs[from + i], y = ys[from + i], z = zs[from + i];
+            int o = 3 * ((omx.mod(x) * oy + omy.mod(y)) * oz + omz.mod(z));
+            //stored offsets are already reduced mod the widths, so each sum is below twice its width and one subtraction reduces it
+            int hx = hmx.mod(x) + offsets.get(o);
+            int hy = hmy.mod(y) + offsets.get(o + 1);
+            int hz = hmz.mod(z) + offsets.get(o + 2);
+            if(hx >= wx) hx -= wx;
+            if(hy >= wy) hy -= wy;
+            if(hz >= wz) hz -= wz;
+            out[outFrom + i] = layoutSlot(hx, hy, hz);
         }
-//        if(bucket.contents.size() >  1) {
-//
-//
-//
-//            for(int attempt = 0; attempt < 1000; attempt++) {
-//
-////                while(badOffests.contains(offset)) {
-////                    offset = new Vec3I(random.nextInt(hashTableWidth) - hashTableWidth/2, random.nextInt(hashTableWidth) - hashTableWidth/2, random.nextInt(hashTableWidth) - hashTableWidth/2);
-////                }
-////                if(OffsetWorks(bucket, offset)) return offset;
-//                emptyHash = findAEmptyHash(emptyHash);
-//                offset = Vec3I.subtract(emptyHash , hash0(bucket.contents.get(0)));
-//                if(OffsetWorks(bucket, offset)) return offset;
-//                badOffests.add(offset);
-//            }
-//        }
-//        else {
-//            emptyHash = findAEmptyHash();
-//            offset = Vec3I.subtract(emptyHash , hash0(bucket.contents.get(0)));
-//            if(offset == null) {
-//                return offset;
-//            }
-//            return offset;
-//
-//        }
-
-        return null;
-    }
-    private Vec3I findAEmptyHash() {
-        Vec3I seed = new Vec3I(random.nextInt(hashTableWidth) - hashTableWidth/2, random.nextInt(hashTableWidth) - hashTableWidth/2, random.nextInt(hashTableWidth) - hashTableWidth/2);
-        for(int x = 0; x < hashTableWidth; x++ ) {
-            for(int y = 0; y < hashTableWidth; y++ ) {
-                for(int z = 0; z  < hashTableWidth; z++ ) {
-                    Vec3I index = Vec3I.add(seed, new Vec3I(x,y,z));
-                    index = hash0(index);
-                    if(!hashFilled[index.x][index.y][index.z]) return index;
-                }
-            }
+    }
+    public void hash(int[] xs, int[] ys, int[] zs, int[] out) {
+        hash(xs, ys, zs, 0, out, 0, xs.length);
+    }
+    //Batch version of hash(x, y, z) for keys packed as x,y,z triples between the position and the limit of xyz.
+    //The slot of the i-th key is written to out[outFrom + i], the buffer's position is left where it was. Returns the number of keys.
+    public int hash(IntBuffer xyz, int[] out, int outFrom) {
+        if(xyz.remaining() % 3 != 0) {
+            throw new IllegalArgumentException(xyz.remaining() + " ints aren't a whole number of x,y,z triples");
+        }
+        int start = xyz.position();
+        int count = xyz.remaining() / 3;
+        if(outFrom < 0 || outFrom + count > out.length) {
+            throw new IndexOutOfBoundsException(count + " keys don't fit in out from " + outFrom);
         }
-        return null;
+        FastMod hmx = hashModX, hmy = hashModY, hmz = hashModZ, omx = offsetModX, omy = offsetModY, omz = offsetModZ;
+        int wx = hmx.divisor, wy = hmy.divisor, wz = hmz.divisor;
+        int oy = omy.divisor, oz = omz.divisor;
+        PackedOffsets offsets = offsetTable;
+        for(int i = 0; i < count; i++) {
+            int k = start + 3 * i;
+            int x = xyz.get(k), y = xyz.get(k + 1), z = xyz.get(k + 2);
+            int o = 3 * ((omx.mod(x) * oy + omy.mod(y)) * oz + omz.mod(z));
+            int hx = hmx.mod(x) + offsets.get(o);
+            int hy = hmy.mod(y) + offsets.get(o + 1);
+            int hz = hmz.mod(z) + offsets.get(o + 2);
+            if(hx >= wx) hx -= wx;
+            if(hy >= wy) hy -= wy;
+            if(hz >= wz) hz -= wz;
+            out[outFrom + i] = layoutSlot(hx, hy, hz);
+        }
+        return count;
     }
-    private Vec3I findAEmptyHash(Vec3I start) {
-        for(int x = 0; x < hashTableWidth; x++ ) {
-            for(int y = 0; y < hashTableWidth; y++ ) {
-                for(int z = 0; z  < hashTableWidth; z++ ) {
-                    if(x + y + z == 0) continue;
-                    Vec3I index = Vec3I.add(start, new Vec3I(x,y,z));
-                    index = hash0(index);
-                    if(!hashFilled[index.x][index.y][index.z]) return index;
-                }
+    //Writes the slots of the stencil's neighbours of (x,y,z) to neighborhood.slots, slot i being hash(x + dx(i), y + dy(i), z + dz(i)).
+    //Each axis reduces the coordinate plus each distinct delta of the stencil once, 9 reductions instead of 6 per neighbour for a
+    //3x3x3 stencil, and neighbours after one another that fall in the same offset table entry read it only once. Nothing is allocated.
+    public void hashStencil(int x, int y, int z, PSHNeighborhood neighborhood) {
+        PSHStencil stencil = neighborhood.stencil;
+        int oy = offsetTableDims.y, oz = offsetTableDims.z;
+        //entries are kept multiplied by their stride, so the entry of a neighbour is a sum
+        int[] hashX = neighborhood.hash0[0], hashY = neighborhood.hash0[1], hashZ = neighborhood.hash0[2];
+        int[] entryX = neighborhood.entry[0], entryY = neighborhood.entry[1], entryZ = neighborhood.entry[2];
+        reduce(x, stencil.axisDeltas[0], hashModX, offsetModX, oy * oz, hashX, entryX);
+        reduce(y, stencil.axisDeltas[1], hashModY, offsetModY, oz, hashY, entryY);
+        reduce(z, stencil.axisDeltas[2], hashModZ, offsetModZ, 1, hashZ, entryZ);
+        int[] indexX = stencil.axisIndex[0], indexY = stencil.axisIndex[1], indexZ = stencil.axisIndex[2];
+        int wx = hashTableDims.x, wy = hashTableDims.y, wz = hashTableDims.z;
+        int[] slots = neighborhood.slots;
+        PackedOffsets offsets = offsetTable;
+        int lastEntry = -1, offsetX = 0, offsetY = 0, offsetZ = 0;
+        for(int i = 0; i < stencil.size; i++) {
+            int ix = indexX[i], iy = indexY[i], iz = indexZ[i];
+            int o = 3 * (entryX[ix] + entryY[iy] + entryZ[iz]);
+            if(o != lastEntry) {
+                offsetX = offsets.get(o);
+                offsetY = offsets.get(o + 1);
+                offsetZ = offsets.get(o + 2);
+                lastEntry = o;
             }
+            int hx = hashX[ix] + offsetX;
+            int hy = hashY[iy] + offsetY;
+            int hz = hashZ[iz] + offsetZ;
+            if(hx >= wx) hx -= wx;
+            if(hy >= wy) hy -= wy;
+            if(hz >= wz) hz -= wz;
+            slots[i] = layoutSlot(hx, hy, hz);
         }
-        return null;
     }
-    private boolean OffsetWorks (OffsetBucket bucket, Vec3I offset) {
-        for(int i = 0; i < bucket.contents.size(); i++) {
-            Vec3I ele = bucket.contents.get(i);
-            Vec3I hash = hash(ele, offset);
-            if(hashFilled[hash.x][hash.y][hash.z]) {
-                return false;
-            }
+    private static void reduce(int coordinate, int[] deltas, FastMod hashMod, FastMod offsetMod, int entryStride, int[] hash0, int[] entry) {
+        for(int j = 0; j < deltas.length; j++) {
+            int c = coordinate + deltas[j];
+            hash0[j] = hashMod.mod(c);
+            entry[j] = offsetMod.mod(c) * entryStride;
         }
-        return true;
     }
-
-
-    private Vec3I hash1(Vec3I key) {
-        return Vec3I.mod(key, offsetTableWidth);
+    //Same slot as hash(x, y, z), bit for bit, but the reductions by the widths use reciprocals precomputed when the widths
+    //were set (see FastMod) instead of divisions, and the last reduction is a subtraction since stored offsets are already reduced.
+    public int hashFast(int x, int y, int z) {
+        FastMod hmx = hashModX, hmy = hashModY, hmz = hashModZ, omx = offsetModX, omy = offsetModY, omz = offsetModZ;
+        int wx = hmx.divisor, wy = hmy.divisor, wz = hmz.divisor;
+        int o = 3 * ((omx.mod(x) * omy.divisor + omy.mod(y)) * omz.divisor + omz.mod(z));
+        int hx = hmx.mod(x) + offsetTable.get(o);
+        int hy = hmy.mod(y) + offsetTable.get(o + 1);
+        int hz = hmz.mod(z) + offsetTable.get(o + 2);
+        if(hx >= wx) hx -= wx;
+        if(hy >= wy) hy -= wy;
+        if(hz >= wz) hz -= wz;
+        return layoutSlot(hx, hy, hz);
     }
-    private Vec3I hash0(Vec3I key) {
-        return Vec3I.mod(key, hashTableWidth);
+    //length of a flat value array indexed by hash(x, y, z), the product of the widths unless the slot layout pads them
+    public int hashTableSize() {
+        return layoutX == null ? slotCount() : layoutSize;
     }
-    public Vec3I hash(Vec3I key) {
-        Vec3I index = hash1(key);
-        return hash0(hash0(key).add(offsetTable[index.x][index.y][index.z]));
+    public PSHSlotLayout getSlotLayout() {
+        return slotLayout;
     }
-    private Vec3I hash(Vec3I key, Vec3I offset) {
-        return hash0(hash0(key).add(offset));
+    //bytes of the offset table and the slot layout tables, what a table that doesn't take inserts keeps after building
+    long memoryBytes() {
+        long bytes = offsetTable.memoryBytes();
+        if(layoutX != null) {
+            bytes += 4L * (layoutX.length + layoutY.length + layoutZ.length);
+        }
+        return bytes;
     }
-    private void resizeOffsetTable() {
-        offsetTableWidth+=5; //test
-        while(MathGeneral.gcd(offsetTableWidth, hashTableWidth) > 1) {
-            offsetTableWidth++;
+    //slots of the hash table itself, the product of the widths
+    private int slotCount() {
+        return hashTableDims.x * hashTableDims.y * hashTableDims.z;
+    }
+    //the slot hash(x, y, z) returns for the hash (hx,hy,hz)
+    private int layoutSlot(int hx, int hy, int hz) {
+        int[] lx = layoutX;
+        if(lx == null) {
+            return (hx * hashTableDims.y + hy) * hashTableDims.z + hz;
         }
-        offsetBuckets = new OffsetBucket[offsetTableWidth][offsetTableWidth][offsetTableWidth];
-        offsetTable = new Vec3I[offsetTableWidth][offsetTableWidth][offsetTableWidth];
-        clearOffsstsToZero();
-
+        return lx[hx] + layoutY[hy] + layoutZ[hz];
     }
-    private void clearFilled() {
-        for(int x = 0; x < hashTableWidth; x++ ) {
-            for(int y = 0; y < hashTableWidth; y++ ) {
-                for(int z = 0; z  < hashTableWidth; z++ ) {
-                    hashFilled[x][y][z] = false;
-                }
-            }
+    //the same for a row major slot
+    private int layoutSlot(int slot) {
+        if(layoutX == null) {
+            return slot;
         }
+        int wy = hashTableDims.y, wz = hashTableDims.z;
+        return layoutX[slot / (wy * wz)] + layoutY[(slot / wz) % wy] + layoutZ[slot % wz];
     }
-    private void clearOffsstsToZero() {
-        for(int x = 0; x < offsetTableWidth; x++ ) {
-            for(int y = 0; y < offsetTableWidth; y++ ) {
-                for(int z = 0; z  < offsetTableWidth; z++ ) {
-                    offsetTable[x][y][z] = new Vec3I(0);
-                }
-            }
+    public int offsetTableSize() {
+        return offsetTableDims.x * offsetTableDims.y * offsetTableDims.z;
+    }
+    //component i of the offset table, x,y,z interleaved and reduced mod the hash table width of their axis, e.g. for uploading it as a texture
+    public int offsetComponent(int i) {
+        return offsetTable.get(i);
+    }
+    //bytes used per offset component: 1 while no hash table width is above 256, 2 up to 65536, 4 above that
+    public int offsetBytes() {
+        return offsetTable.bytes;
+    }
+    //takes over the widths, offsets and key count of the engine's last build
+    private void tableChanged() {
+        int[] w = engine.hashTableDims, o = engine.offsetTableDims;
+        hashTableDims.x = w[0];
+        hashTableDims.y = w[1];
+        hashTableDims.z = w[2];
+        offsetTableDims.x = o[0];
+        offsetTableDims.y = o[1];
+        offsetTableDims.z = o[2];
+        hashTableWidth = Math.max(w[0], Math.max(w[1], w[2]));
+        offsetTableWidth = Math.max(o[0], Math.max(o[1], o[2]));
+        hashModX = engine.hashMod[0];
+        hashModY = engine.hashMod[1];
+        hashModZ = engine.hashMod[2];
+        offsetModX = engine.offsetMod[0];
+        offsetModY = engine.offsetMod[1];
+        offsetModZ = engine.offsetMod[2];
+        offsetTable = engine.offsets;
+        n = engine.n;
+        int[][] tables = slotLayout.axisTables(hashTableDims);
+        if(tables != null) {
+            layoutX = tables[0];
+            layoutY = tables[1];
+            layoutZ = tables[2];
+            layoutSize = (int)slotLayout.size(hashTableDims);
         }
     }
 
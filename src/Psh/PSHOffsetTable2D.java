@@ -0,0 +1,148 @@
+package Psh;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A perfect spatial hash for 2D keys such as tile maps, built with the same offset search as PSHOffsetTable (see PSHEngine)
+ * and with the same sizing policies and seeds.
+ *
+ *  PSHOffsetTable2D table = PSHOffsetTable2D.builder().add(x, y).add(x, y).build();
+ *  int slot = table.hash(x, y); //a slot in [0, hashTableSize())
+ *
+ * Slots are packed as x * hashTableWidthY + y, so the hash table can be a flat array of hashTableSize() values.
+ * hash() has no divisions, the reductions by the widths use the reciprocals of FastMod.
+ */
+public final class PSHOffsetTable2D {
+
+    public final int hashTableWidthX;
+    public final int hashTableWidthY;
+    public final int offsetTableWidthX;
+    public final int offsetTableWidthY;
+    private final FastMod hashModX, offsetModX;
+    private final FastMod hashModY, offsetModY;
+    //2 components per offset table entry, each reduced mod the hash table width of its axis
+    private final PackedOffsets offsets;
+    private final int n;
+    private final long seed;
+    private final PSHBuildStats stats;
+
+    private PSHOffsetTable2D(PSHEngine engine) {
+        hashTableWidthX = engine.hashTableDims[0];
+        offsetTableWidthX = engine.offsetTableDims[0];
+        hashModX = engine.hashMod[0];
+        offsetModX = engine.offsetMod[0];
+        hashTableWidthY = engine.hashTableDims[1];
+        offsetTableWidthY = engine.offsetTableDims[1];
+        hashModY = engine.hashMod[1];
+        offsetModY = engine.offsetMod[1];
+        offsets = engine.offsets;
+        n = engine.n;
+        stats = engine.stats;
+        seed = engine.seed;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private PSHSizingPolicy sizing = PSHSizingPolicy.DEFAULT;
+        private boolean seeded = false;
+        private long seed;
+        private int parallelism = 1;
+        private final PackedKeys keys = new PackedKeys(2, 16);
+
+        public Builder sizing(PSHSizingPolicy sizing) {
+            if(sizing == null) {
+                throw new IllegalArgumentException("sizing can't be null");
+            }
+            this.sizing = sizing;
+            return this;
+        }
+        //fixes the random choices of the offset search, see PSHOffsetTable.Builder.seed()
+        public Builder seed(long seed) {
+            this.seed = seed;
+            seeded = true;
+            return this;
+        }
+
+        //number of threads used to calculate offsets, see PSHOffsetTable.Builder.parallel()
+        public Builder parallel(int parallelism) {
+            if(parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be at least 1 but was " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public Builder add(int x, int y) {
+            keys.ensureCapacity(keys.size + 1);
+            int[] coordinates = keys.coordinates;
+            int k = 2 * keys.size;
+            coordinates[k] = x;
+            coordinates[k + 1] = y;
+            keys.size++;
+            return this;
+        }
+        //adds count keys packed as x,y tuples in source starting at source[from]
+        public Builder addAll(int[] source, int from, int count) {
+            if(from < 0 || count < 0 || from + 2L * count > source.length) {
+                throw new IndexOutOfBoundsException(count + " keys from " + from + " don't fit in " + source.length + " ints");
+            }
+            keys.add(source, from, count);
+            return this;
+        }
+        public int keyCount() {
+            return keys.size;
+        }
+
+        //builds a table for the keys added so far, repeated keys are merged
+        public PSHOffsetTable2D build() {
+            long seed = seeded ? this.seed : ThreadLocalRandom.current().nextLong();
+            PSHEngine engine = new PSHEngine(2, sizing, seed, parallelism, false, false, null);
+            //the engine merges repeated keys in place, the builder keeps its own for the next build
+            engine.build(keys.copy(), PSHBuildStats.Kind.BUILD);
+            return new PSHOffsetTable2D(engine);
+        }
+    }
+
+    //linear index of the hash of (x,y) into a flat hash table of hashTableSize() slots, nothing is allocated
+    public int hash(int x, int y) {
+        int o = 2 * (offsetModX.mod(x) * offsetTableWidthY + offsetModY.mod(y));
+        int hx = hashModX.mod(x) + offsets.get(o);
+        if(hx >= hashTableWidthX) hx -= hashTableWidthX;
+        int hy = hashModY.mod(y) + offsets.get(o + 1);
+        if(hy >= hashTableWidthY) hy -= hashTableWidthY;
+        return hx * hashTableWidthY + hy;
+    }
+    //Batch version of hash() for keys packed as x,y tuples: the slot of the key at packed[from + 2 * i] is written
+    //to out[outFrom + i] for i below count.
+    public void hash(int[] packed, int from, int[] out, int outFrom, int count) {
+        if(from < 0 || count < 0 || from + 2L * count > packed.length || outFrom < 0 || outFrom + count > out.length) {
+            throw new IndexOutOfBoundsException("batch of " + count + " from " + from + " into " + outFrom + " doesn't fit the arrays");
+        }
+        for(int i = 0, k = from; i < count; i++, k += 2) {
+            out[outFrom + i] = hash(packed[k], packed[k + 1]);
+        }
+    }
+
+    public int hashTableSize() {
+        return hashTableWidthX * hashTableWidthY;
+    }
+    public int offsetTableSize() {
+        return offsetTableWidthX * offsetTableWidthY;
+    }
+    //component i of the offset table, x,y interleaved and reduced mod the hash table width of their axis
+    public int offsetComponent(int i) {
+        return offsets.get(i);
+    }
+    public int elementCount() {
+        return n;
+    }
+    public PSHBuildStats getBuildStats() {
+        return stats;
+    }
+    public long getSeed() {
+        return seed;
+    }
+}
@@ -0,0 +1,169 @@
+package Psh;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A perfect spatial hash for 4D keys such as x,y,z plus a time step or level of detail, built with the same offset search
+ * as PSHOffsetTable (see PSHEngine) and with the same sizing policies and seeds.
+ *
+ *  PSHOffsetTable4D table = PSHOffsetTable4D.builder().add(x, y, z, w).add(x, y, z, w).build();
+ *  int slot = table.hash(x, y, z, w); //a slot in [0, hashTableSize())
+ *
+ * Slots are packed as ((x * hashTableWidthY + y) * hashTableWidthZ + z) * hashTableWidthW + w, so the hash table can be
+ * a flat array of hashTableSize() values.
+ * hash() has no divisions, the reductions by the widths use the reciprocals of FastMod.
+ */
+public final class PSHOffsetTable4D {
+
+    public final int hashTableWidthX;
+    public final int hashTableWidthY;
+    public final int hashTableWidthZ;
+    public final int hashTableWidthW;
+    public final int offsetTableWidthX;
+    public final int offsetTableWidthY;
+    public final int offsetTableWidthZ;
+    public final int offsetTableWidthW;
+    private final FastMod hashModX, offsetModX;
+    private final FastMod hashModY, offsetModY;
+    private final FastMod hashModZ, offsetModZ;
+    private final FastMod hashModW, offsetModW;
+    //4 components per offset table entry, each reduced mod the hash table width of its axis
+    private final PackedOffsets offsets;
+    private final int n;
+    private final long seed;
+    private final PSHBuildStats stats;
+
+    private PSHOffsetTable4D(PSHEngine engine) {
+        hashTableWidthX = engine.hashTableDims[0];
+        offsetTableWidthX = engine.offsetTableDims[0];
+        hashModX = engine.hashMod[0];
+        offsetModX = engine.offsetMod[0];
+        hashTableWidthY = engine.hashTableDims[1];
+        offsetTableWidthY = engine.offsetTableDims[1];
+        hashModY = engine.hashMod[1];
+        offsetModY = engine.offsetMod[1];
+        hashTableWidthZ = engine.hashTableDims[2];
+        offsetTableWidthZ = engine.offsetTableDims[2];
+        hashModZ = engine.hashMod[2];
+        offsetModZ = engine.offsetMod[2];
+        hashTableWidthW = engine.hashTableDims[3];
+        offsetTableWidthW = engine.offsetTableDims[3];
+        hashModW = engine.hashMod[3];
+        offsetModW = engine.offsetMod[3];
+        offsets = engine.offsets;
+        n = engine.n;
+        stats = engine.stats;
+        seed = engine.seed;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private PSHSizingPolicy sizing = PSHSizingPolicy.DEFAULT;
+        private boolean seeded = false;
+        private long seed;
+        private int parallelism = 1;
+        private final PackedKeys keys = new PackedKeys(4, 16);
+
+        public Builder sizing(PSHSizingPolicy sizing) {
+            if(sizing == null) {
+                throw new IllegalArgumentException("sizing can't be null");
+            }
+            this.sizing = sizing;
+            return this;
+        }
+        //fixes the random choices of the offset search, see PSHOffsetTable.Builder.seed()
+        public Builder seed(long seed) {
+            this.seed = seed;
+            seeded = true;
+            return this;
+        }
+
+        //number of threads used to calculate offsets, see PSHOffsetTable.Builder.parallel()
+        public Builder parallel(int parallelism) {
+            if(parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be at least 1 but was " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public Builder add(int x, int y, int z, int w) {
+            keys.ensureCapacity(keys.size + 1);
+            int[] coordinates = keys.coordinates;
+            int k = 4 * keys.size;
+            coordinates[k] = x;
+            coordinates[k + 1] = y;
+            coordinates[k + 2] = z;
+            coordinates[k + 3] = w;
+            keys.size++;
+            return this;
+        }
+        //adds count keys packed as x,y,z,w tuples in source starting at source[from]
+        public Builder addAll(int[] source, int from, int count) {
+            if(from < 0 || count < 0 || from + 4L * count > source.length) {
+                throw new IndexOutOfBoundsException(count + " keys from " + from + " don't fit in " + source.length + " ints");
+            }
+            keys.add(source, from, count);
+            return this;
+        }
+        public int keyCount() {
+            return keys.size;
+        }
+
+        //builds a table for the keys added so far, repeated keys are merged
+        public PSHOffsetTable4D build() {
+            long seed = seeded ? this.seed : ThreadLocalRandom.current().nextLong();
+            PSHEngine engine = new PSHEngine(4, sizing, seed, parallelism, false, false, null);
+            //the engine merges repeated keys in place, the builder keeps its own for the next build
+            engine.build(keys.copy(), PSHBuildStats.Kind.BUILD);
+            return new PSHOffsetTable4D(engine);
+        }
+    }
+
+    //linear index of the hash of (x,y,z,w) into a flat hash table of hashTableSize() slots, nothing is allocated
+    public int hash(int x, int y, int z, int w) {
+        int o = 4 * (((offsetModX.mod(x) * offsetTableWidthY + offsetModY.mod(y)) * offsetTableWidthZ + offsetModZ.mod(z)) * offsetTableWidthW + offsetModW.mod(w));
+        int hx = hashModX.mod(x) + offsets.get(o);
+        if(hx >= hashTableWidthX) hx -= hashTableWidthX;
+        int hy = hashModY.mod(y) + offsets.get(o + 1);
+        if(hy >= hashTableWidthY) hy -= hashTableWidthY;
+        int hz = hashModZ.mod(z) + offsets.get(o + 2);
+        if(hz >= hashTableWidthZ) hz -= hashTableWidthZ;
+        int hw = hashModW.mod(w) + offsets.get(o + 3);
+        if(hw >= hashTableWidthW) hw -= hashTableWidthW;
+        return ((hx * hashTableWidthY + hy) * hashTableWidthZ + hz) * hashTableWidthW + hw;
+    }
+    //Batch version of hash() for keys packed as x,y,z,w tuples: the slot of the key at packed[from + 4 * i] is written
+    //to out[outFrom + i] for i below count.
+    public void hash(int[] packed, int from, int[] out, int outFrom, int count) {
+        if(from < 0 || count < 0 || from + 4L * count > packed.length || outFrom < 0 || outFrom + count > out.length) {
+            throw new IndexOutOfBoundsException("batch of " + count + " from " + from + " into " + outFrom + " doesn't fit the arrays");
+        }
+        for(int i = 0, k = from; i < count; i++, k += 4) {
+            out[outFrom + i] = hash(packed[k], packed[k + 1], packed[k + 2], packed[k + 3]);
+        }
+    }
+
+    public int hashTableSize() {
+        return hashTableWidthX * hashTableWidthY * hashTableWidthZ * hashTableWidthW;
+    }
+    public int offsetTableSize() {
+        return offsetTableWidthX * offsetTableWidthY * offsetTableWidthZ * offsetTableWidthW;
+    }
+    //component i of the offset table, x,y,z,w interleaved and reduced mod the hash table width of their axis
+    public int offsetComponent(int i) {
+        return offsets.get(i);
+    }
+    public int elementCount() {
+        return n;
+    }
+    public PSHBuildStats getBuildStats() {
+        return stats;
+    }
+    public long getSeed() {
+        return seed;
+    }
+}
@@ -0,0 +1,270 @@
+package Psh;
+
+import java.util.Arrays;
+
+/**
+ * How a PSHOffsetTable sizes its two tables and how hard it tries before giving up, set with PSHOffsetTable.Builder.sizing().
+ * A fuller hash table and a smaller offset table save memory but make the offset search slower and more likely to fail.
+ *
+ *  PSHSizingPolicy policy = PSHSizingPolicy.builder().loadFactor(0.95f).keysPerOffset(6).growthFactor(1.25f).build();
+ *  PSHOffsetTable table = PSHOffsetTable.builder().sizing(policy).build(keys);
+ *
+ * The defaults are the sizes the table always used: a load of about 1 / 1.1, 4 keys per offset table entry, and 10
+ * attempts that each grow the offset table width by 5. Before an attempt is given up, a bucket that finds no offset may take
+ * the place of a placed bucket that is no bigger, which then looks for a place in turn, up to one such displacement per 500
+ * buckets of the table. Builds and updateOffsets() of PSHOffsetTable, serial or parallel, and the builds of PSHOffsetTable2D
+ * and PSHOffsetTable4D displace, the single key edits of an incremental table rebuild it instead. An attempt whose searches
+ * fail so often that it can't finish stops displacing before its budget is spent.
+ *
+ * Both tables are cubes unless fitBounds(true) is set, then each axis gets a width in proportion to the extent of the keys'
+ * bounding box on that axis, so keys in a thin slab get a flat table instead of a cube that is mostly empty.
+ */
+public final class PSHSizingPolicy {
+
+    public static final PSHSizingPolicy DEFAULT = builder().build();
+
+    //the hash table is sized for at most this many keys per slot, the width is rounded up so the real load is a bit lower
+    public final float loadFactor;
+    private final double slotsPerKey;
+    //keys per offset table entry the offset table is first sized for
+    public final float keysPerOffset;
+    //after a failed attempt the offset table width becomes max(width + growthStep, width * growthFactor), then the next coprime width
+    public final int growthStep;
+    public final float growthFactor;
+    //attempts before the build throws an IllegalStateException
+    public final int maxAttempts;
+    //candidate offsets a bucket may try before its search fails, 0 for no limit
+    public final int probeLimit;
+    //A bucket whose search failed takes the place of a placed bucket that is no bigger, which is then placed again. This is
+    //how many buckets an attempt may take out per bucket of the table before it is retried with a larger offset table, 0 to
+    //retry at once.
+    public final float displacementBudget;
+    //a build that takes longer than this throws an IllegalStateException instead of retrying, 0 for no limit
+    public final long timeBudgetNanos;
+    //per axis widths shaped like the keys' bounding box instead of cubes
+    public final boolean fitBounds;
+
+    private PSHSizingPolicy(Builder builder) {
+        loadFactor = builder.loadFactor;
+        slotsPerKey = builder.slotsPerKey;
+        keysPerOffset = builder.keysPerOffset;
+        growthStep = builder.growthStep;
+        growthFactor = builder.growthFactor;
+        maxAttempts = builder.maxAttempts;
+        probeLimit = builder.probeLimit;
+        displacementBudget = builder.displacementBudget;
+        timeBudgetNanos = builder.timeBudgetNanos;
+        fitBounds = builder.fitBounds;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    //a builder starting from this policy's settings
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.loadFactor = loadFactor;
+        builder.slotsPerKey = slotsPerKey;
+        builder.keysPerOffset = keysPerOffset;
+        builder.growthStep = growthStep;
+        builder.growthFactor = growthFactor;
+        builder.maxAttempts = maxAttempts;
+        builder.probeLimit = probeLimit;
+        builder.displacementBudget = displacementBudget;
+        builder.timeBudgetNanos = timeBudgetNanos;
+        builder.fitBounds = fitBounds;
+        return builder;
+    }
+
+    //width of a hash table with dimension axes of the same width
+    int hashTableWidth(int keys, int dimension) {
+        float d = (float)Math.pow(keys * slotsPerKey, 1.0f/dimension);
+        return (int)(d + 1.1f);
+    }
+    int offsetTableWidth(int keys, int dimension) {
+        float d = (float)Math.pow(Math.floor(keys / (double)keysPerOffset), 1.0f/dimension);
+        return (int)(d + 1.1f);
+    }
+    double slotsPerKey() {
+        return slotsPerKey;
+    }
+    //Per axis hash table widths for keys spread over a bounding box of extent[0] * extent[1] * ...: at least keys * slotsPerKey
+    //slots in all, each axis in proportion to its extent but never wider than the extent, which would only leave slots empty.
+    int[] fitHashTable(int keys, long[] extent) {
+        return fit(Math.max(1, (long)Math.ceil(keys * slotsPerKey)), extent);
+    }
+    //Per axis offset table widths, floor(keys / keysPerOffset) entries in all shaped like the hash table.
+    int[] fitOffsetTable(int keys, int[] hashTableDims) {
+        long[] extent = new long[hashTableDims.length];
+        for(int a = 0; a < extent.length; a++) {
+            extent[a] = hashTableDims[a];
+        }
+        return fit(Math.max(1, (long)Math.floor(keys / (double)keysPerOffset)), extent);
+    }
+    private static int[] fit(long total, long[] extent) {
+        int axisCount = extent.length;
+        long[] width = new long[axisCount];
+        //narrowest extent first: rounding its width up costs the most, so the wider axes are scaled again to make up for it
+        Integer[] axes = new Integer[axisCount];
+        for(int a = 0; a < axisCount; a++) {
+            axes[a] = a;
+        }
+        Arrays.sort(axes, (a, b) -> Long.compare(extent[a], extent[b]));
+        double rest = total;
+        for(int i = 0; i < axisCount; i++) {
+            int a = axes[i];
+            double free = 1;
+            for(int k = i; k < axisCount; k++) {
+                free *= extent[axes[k]];
+            }
+            double scale = Math.pow(rest / free, 1.0 / (axisCount - i));
+            //never wider than the extent, which would only leave slots empty
+            width[a] = Math.max(1, Math.min(extent[a], (long)Math.ceil(extent[a] * scale - 1e-9)));
+            rest /= width[a];
+        }
+        //the extents were too small for the slots wanted, widen the narrowest axis until they fit
+        while(product(width) < total) {
+            int narrowest = 0;
+            for(int a = 1; a < axisCount; a++) {
+                if(width[a] < width[narrowest]) {
+                    narrowest = a;
+                }
+            }
+            width[narrowest]++;
+        }
+        if(product(width) > Integer.MAX_VALUE) {
+            throw new IllegalStateException("table of " + Arrays.toString(width) + " slots is too large");
+        }
+        int[] widths = new int[axisCount];
+        for(int a = 0; a < axisCount; a++) {
+            widths[a] = (int)width[a];
+        }
+        return widths;
+    }
+    //saturates instead of overflowing, anything above Integer.MAX_VALUE is too large anyway
+    private static long product(long[] width) {
+        long product = 1;
+        for(long w : width) {
+            product = product > Long.MAX_VALUE / w ? Long.MAX_VALUE : product * w;
+        }
+        return product;
+    }
+    int grow(int offsetTableWidth) {
+        return Math.max(offsetTableWidth + growthStep, (int)Math.ceil(offsetTableWidth * (double)growthFactor));
+    }
+
+    //policies are equal if every setting is, tables built with equal policies from the same keys and seed are the same
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof PSHSizingPolicy)) {
+            return false;
+        }
+        PSHSizingPolicy p = (PSHSizingPolicy)o;
+        return loadFactor == p.loadFactor && slotsPerKey == p.slotsPerKey && keysPerOffset == p.keysPerOffset && growthStep == p.growthStep
+                && growthFactor == p.growthFactor && maxAttempts == p.maxAttempts && probeLimit == p.probeLimit && displacementBudget == p.displacementBudget
+                && timeBudgetNanos == p.timeBudgetNanos && fitBounds == p.fitBounds;
+    }
+    @Override
+    public int hashCode() {
+        int h = Float.floatToIntBits(loadFactor);
+        h = 31 * h + Double.hashCode(slotsPerKey);
+        h = 31 * h + Float.floatToIntBits(keysPerOffset);
+        h = 31 * h + growthStep;
+        h = 31 * h + Float.floatToIntBits(growthFactor);
+        h = 31 * h + maxAttempts;
+        h = 31 * h + probeLimit;
+        h = 31 * h + Float.floatToIntBits(displacementBudget);
+        h = 31 * h + Long.hashCode(timeBudgetNanos);
+        return 31 * h + (fitBounds ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("load factor %.3f, %.2f keys per offset, growth +%d or x%.2f, %d attempts, probe limit %d, displacement budget %.2f, time budget %.3f ms%s",
+                loadFactor, keysPerOffset, growthStep, growthFactor, maxAttempts, probeLimit, displacementBudget, timeBudgetNanos / 1e6, fitBounds ? ", fit to bounds" : "");
+    }
+
+    public static class Builder {
+        private float loadFactor = 1 / 1.1f;
+        private double slotsPerKey = 1.1;
+        private float keysPerOffset = 4;
+        private int growthStep = 5;
+        private float growthFactor = 1;
+        private int maxAttempts = 10;
+        private int probeLimit = 0;
+        private float displacementBudget = 0.002f;
+        private long timeBudgetNanos = 0;
+        private boolean fitBounds = false;
+
+        public Builder loadFactor(float loadFactor) {
+            if(!(loadFactor > 0 && loadFactor <= 1)) {
+                throw new IllegalArgumentException("load factor has to be in (0, 1] but was " + loadFactor);
+            }
+            this.loadFactor = loadFactor;
+            this.slotsPerKey = 1.0 / loadFactor;
+            return this;
+        }
+        public Builder keysPerOffset(float keysPerOffset) {
+            if(!(keysPerOffset >= 1)) {
+                throw new IllegalArgumentException("keys per offset has to be at least 1 but was " + keysPerOffset);
+            }
+            this.keysPerOffset = keysPerOffset;
+            return this;
+        }
+        public Builder growthStep(int growthStep) {
+            if(growthStep < 0) {
+                throw new IllegalArgumentException("growth step can't be negative but was " + growthStep);
+            }
+            this.growthStep = growthStep;
+            return this;
+        }
+        public Builder growthFactor(float growthFactor) {
+            if(!(growthFactor >= 1)) {
+                throw new IllegalArgumentException("growth factor has to be at least 1 but was " + growthFactor);
+            }
+            this.growthFactor = growthFactor;
+            return this;
+        }
+        public Builder maxAttempts(int maxAttempts) {
+            if(maxAttempts < 1) {
+                throw new IllegalArgumentException("max attempts has to be at least 1 but was " + maxAttempts);
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+        public Builder probeLimit(int probeLimit) {
+            if(probeLimit < 0) {
+                throw new IllegalArgumentException("probe limit can't be negative but was " + probeLimit);
+            }
+            this.probeLimit = probeLimit;
+            return this;
+        }
+        public Builder displacementBudget(float displacementBudget) {
+            if(!(displacementBudget >= 0)) {
+                throw new IllegalArgumentException("displacement budget can't be negative but was " + displacementBudget);
+            }
+            this.displacementBudget = displacementBudget;
+            return this;
+        }
+        public Builder timeBudgetNanos(long timeBudgetNanos) {
+            if(timeBudgetNanos < 0) {
+                throw new IllegalArgumentException("time budget can't be negative but was " + timeBudgetNanos);
+            }
+            this.timeBudgetNanos = timeBudgetNanos;
+            return this;
+        }
+
+        public Builder fitBounds(boolean fitBounds) {
+            this.fitBounds = fitBounds;
+            return this;
+        }
+
+        public PSHSizingPolicy build() {
+            if(growthStep == 0 && growthFactor == 1) {
+                throw new IllegalArgumentException("growth step 0 and growth factor 1 would retry with the same offset table");
+            }
+            return new PSHSizingPolicy(this);
+        }
+    }
+}
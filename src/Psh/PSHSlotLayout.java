@@ -0,0 +1,121 @@
+package Psh;
+
+/**
+ * How PSHOffsetTable.hash(x, y, z) turns the 3D hash of a key into a linear slot, set with PSHOffsetTable.Builder.slotLayout().
+ * Keys that hash next to each other in 3D only land in the same cache line of a flat value array if the layout keeps 3D
+ * neighbourhoods together, which row major order does along z only.
+ *
+ *  ROW_MAJOR  (x * Wy + y) * Wz + z, the default. Exactly hashTableSize() = Wx * Wy * Wz slots.
+ *  BRICK      bricks of 4x4x4 slots stored one after the other in row major order, the 64 slots of a brick in Morton order,
+ *             so a brick of int values is 4 cache lines. Widths are padded to a multiple of 4, a few percent more slots.
+ *  MORTON     Z-order over the whole table: the bits of x, y and z interleaved. Widths are padded to powers of two,
+ *             which can take up to 8 times the slots.
+ *
+ * Whatever the layout, hashTableSize() is the length a flat value array needs and every key gets its own slot in it.
+ */
+public enum PSHSlotLayout {
+    ROW_MAJOR(0),
+    BRICK(1),
+    MORTON(2);
+
+    //stored in table files, see PSHTableIO
+    final int code;
+
+    private static final int brickBits = 2;
+
+    PSHSlotLayout(int code) {
+        this.code = code;
+    }
+
+    static PSHSlotLayout ofCode(int code) {
+        for(PSHSlotLayout layout : values()) {
+            if(layout.code == code) {
+                return layout;
+            }
+        }
+        return null;
+    }
+
+    //Slots of a hash table of dims in this layout, which can be more than Integer.MAX_VALUE for a table too big for it.
+    long size(Vec3I dims) {
+        switch(this) {
+            case BRICK: {
+                int bx = axisBrickBits(dims.x), by = axisBrickBits(dims.y), bz = axisBrickBits(dims.z);
+                return (long)bricks(dims.x, bx) * bricks(dims.y, by) * bricks(dims.z, bz) << (bx + by + bz);
+            }
+            case MORTON:
+                return 1L << (bits(dims.x) + bits(dims.y) + bits(dims.z));
+            default:
+                return (long)dims.x * dims.y * dims.z;
+        }
+    }
+
+    //Per axis tables t with the slot of the hash (x,y,z) being t[0][x] + t[1][y] + t[2][z], null for ROW_MAJOR which is computed.
+    int[][] axisTables(Vec3I dims) {
+        if(this == ROW_MAJOR) {
+            return null;
+        }
+        if(size(dims) > Integer.MAX_VALUE) {
+            throw new IllegalStateException("hash table of " + dims.x + " x " + dims.y + " x " + dims.z + " is too large for the " + this + " layout");
+        }
+        int[] widths = {dims.x, dims.y, dims.z};
+        int[][] tables = new int[3][];
+        if(this == MORTON) {
+            int[][] positions = interleave(bits(dims.x), bits(dims.y), bits(dims.z));
+            for(int a = 0; a < 3; a++) {
+                tables[a] = new int[widths[a]];
+                for(int v = 0; v < widths[a]; v++) {
+                    tables[a][v] = spread(v, positions[a]);
+                }
+            }
+            return tables;
+        }
+        int[] brick = {axisBrickBits(dims.x), axisBrickBits(dims.y), axisBrickBits(dims.z)};
+        int[][] positions = interleave(brick[0], brick[1], brick[2]);
+        int brickSlots = 1 << (brick[0] + brick[1] + brick[2]);
+        int bricksY = bricks(dims.y, brick[1]), bricksZ = bricks(dims.z, brick[2]);
+        int[] strides = {bricksY * bricksZ * brickSlots, bricksZ * brickSlots, brickSlots};
+        for(int a = 0; a < 3; a++) {
+            tables[a] = new int[widths[a]];
+            int mask = (1 << brick[a]) - 1;
+            for(int v = 0; v < widths[a]; v++) {
+                tables[a][v] = (v >> brick[a]) * strides[a] + spread(v & mask, positions[a]);
+            }
+        }
+        return tables;
+    }
+
+    //bits of a coordinate below width
+    private static int bits(int width) {
+        return 32 - Integer.numberOfLeadingZeros(width - 1);
+    }
+    //bricks are 4 slots wide, or narrower on an axis that is narrower than that
+    private static int axisBrickBits(int width) {
+        return Math.min(brickBits, bits(width));
+    }
+    private static int bricks(int width, int bits) {
+        return (width + (1 << bits) - 1) >> bits;
+    }
+    //Output bit of every input bit of x, y and z: lowest bits first, z before y before x within a level, axes that have run
+    //out of bits are skipped so uneven widths waste nothing.
+    private static int[][] interleave(int bitsX, int bitsY, int bitsZ) {
+        int[] bits = {bitsX, bitsY, bitsZ};
+        int[][] positions = {new int[bitsX], new int[bitsY], new int[bitsZ]};
+        int next = 0;
+        for(int level = 0; level < Math.max(bitsX, Math.max(bitsY, bitsZ)); level++) {
+            for(int a = 2; a >= 0; a--) {
+                if(level < bits[a]) {
+                    positions[a][level] = next++;
+                }
+            }
+        }
+        return positions;
+    }
+    private static int spread(int value, int[] positions) {
+        int spread = 0;
+        for(int bit = 0; bit < positions.length; bit++) {
+            spread |= ((value >> bit) & 1) << positions[bit];
+        }
+        return spread;
+    }
+}
@@ -0,0 +1,102 @@
+package Psh;
+
+import java.util.Arrays;
+
+/**
+ * A fixed set of neighbour offsets (dx,dy,dz) for stencil queries, see PSHOffsetTable.hashStencil() and getNeighbors() of the
+ * PerfectSpatialHash maps. Results are written to a PSHNeighborhood made for the stencil, neighbour i of the stencil being
+ * (x + dx(i), y + dy(i), z + dz(i)).
+ *
+ *  PSHNeighborhood neighborhood = new PSHNeighborhood(PSHStencil.MOORE);
+ *  int present = map.getNeighbors(x, y, z, neighborhood, values, 0);
+ *
+ * A stencil has at most 64 neighbours so their presence fits in one long.
+ */
+public final class PSHStencil {
+
+    public static final int maxSize = 64;
+
+    //the 6 neighbours sharing a face
+    public static final PSHStencil FACES = of(-1,0,0, 1,0,0, 0,-1,0, 0,1,0, 0,0,-1, 0,0,1);
+    //all 26 neighbours of the 3x3x3 block around the key, z changing fastest
+    public static final PSHStencil MOORE = box(1, false);
+
+    final int size;
+    final int[] deltas; //dx,dy,dz of every neighbour
+    //the distinct deltas of each axis, a query reduces the key's coordinate plus each of them once
+    final int[][] axisDeltas = new int[3][];
+    //for each axis and neighbour, the position of the neighbour's delta in axisDeltas
+    final int[][] axisIndex = new int[3][];
+
+    private PSHStencil(int[] deltas) {
+        if(deltas.length % 3 != 0) {
+            throw new IllegalArgumentException("neighbour offsets come as dx,dy,dz triples but got " + deltas.length + " ints");
+        }
+        size = deltas.length / 3;
+        if(size > maxSize) {
+            throw new IllegalArgumentException("a stencil has at most " + maxSize + " neighbours but got " + size);
+        }
+        this.deltas = deltas.clone();
+        for(int a = 0; a < 3; a++) {
+            int[] distinct = new int[size];
+            int count = 0;
+            axisIndex[a] = new int[size];
+            for(int i = 0; i < size; i++) {
+                int delta = deltas[3 * i + a];
+                int j = 0;
+                while(j < count && distinct[j] != delta) {
+                    j++;
+                }
+                if(j == count) {
+                    distinct[count++] = delta;
+                }
+                axisIndex[a][i] = j;
+            }
+            axisDeltas[a] = Arrays.copyOf(distinct, count);
+        }
+    }
+
+    //a stencil of the neighbours given as dx,dy,dz triples, in that order
+    public static PSHStencil of(int... deltas) {
+        return new PSHStencil(deltas);
+    }
+
+    //every offset with each component in [-radius, radius], (0,0,0) only if withCenter, z changing fastest
+    public static PSHStencil box(int radius, boolean withCenter) {
+        if(radius < 0) {
+            throw new IllegalArgumentException("radius can't be negative but was " + radius);
+        }
+        int side = 2 * radius + 1;
+        long count = (long)side * side * side - (withCenter ? 0 : 1);
+        if(count > maxSize) {
+            throw new IllegalArgumentException("a box of radius " + radius + " has " + count + " neighbours, more than " + maxSize);
+        }
+        int[] deltas = new int[3 * (int)count];
+        int k = 0;
+        for(int dx = -radius; dx <= radius; dx++) {
+            for(int dy = -radius; dy <= radius; dy++) {
+                for(int dz = -radius; dz <= radius; dz++) {
+                    if(withCenter || dx != 0 || dy != 0 || dz != 0) {
+                        deltas[k++] = dx;
+                        deltas[k++] = dy;
+                        deltas[k++] = dz;
+                    }
+                }
+            }
+        }
+        return new PSHStencil(deltas);
+    }
+
+    public int size() {
+        return size;
+    }
+    public int dx(int i) {
+        return deltas[3 * i];
+    }
+    public int dy(int i) {
+        return deltas[3 * i + 1];
+    }
+    public int dz(int i) {
+        return deltas[3 * i + 2];
+    }
+}
@@ -0,0 +1,259 @@
+package Psh;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps built PSHOffsetTables so building one again for a key set seen before is a lookup, for key sets that come back like
+ * LOD levels, reloaded chunks or undo and redo.
+ *
+ *  PSHTableCache cache = new PSHTableCache(64 << 20, spillDirectory);
+ *  PSHOffsetTable table = cache.build(PSHOffsetTable.builder().seed(1).addAll(xyz, 0, count));
+ *
+ * Tables are found by a fingerprint of the keys that doesn't depend on their order, two 64 bit sums of a hash of every key,
+ * together with the builder's sizing policy, seed, slot layout and auto tune budget. A table found that way is only handed
+ * out after checking that it gives every key a slot of its own, so a fingerprint collision costs a build but never gives a
+ * wrong table. The check hashes every key once, which is a small part of a build.
+ *
+ * The least recently used tables are dropped once their offset tables take more than maxBytes. With a spill directory they
+ * are written there with PSHTableIO first and read back on the next miss, so the directory also carries the cache over
+ * to later runs. Spilled files aren't limited in size, clear() deletes them.
+ *
+ * The same table is handed to every build that finds it, so cached tables mustn't be changed: builders set to incremental(true)
+ * bypass the cache. Tables read back from the spill directory have no build stats. The cache can be shared between threads,
+ * builds run outside of its lock.
+ */
+public final class PSHTableCache {
+
+    private static final String spillSuffix = ".psht";
+
+    private final long maxBytes;
+    private final Path spillDirectory;
+    private final LinkedHashMap<Key, PSHOffsetTable> tables = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits, spillHits, misses;
+
+    public PSHTableCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    //spillDirectory is where dropped tables are written, null to just drop them
+    public PSHTableCache(long maxBytes, Path spillDirectory) {
+        if(maxBytes < 0) {
+            throw new IllegalArgumentException("max bytes can't be negative but was " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.spillDirectory = spillDirectory;
+    }
+
+    //a table for elements, keys added to builder are left alone
+    public PSHOffsetTable build(PSHOffsetTable.Builder builder, ArrayList<Vec3I> elements) {
+        return build(builder, PackedKeys.of(elements));
+    }
+
+    //a table for the keys added to builder since its last build, the builder is left empty for the next one
+    public PSHOffsetTable build(PSHOffsetTable.Builder builder) {
+        return build(builder, builder.takeKeys());
+    }
+
+    private PSHOffsetTable build(PSHOffsetTable.Builder builder, PackedKeys keys) {
+        if(builder.incremental) {
+            return builder.build(keys);
+        }
+        if(builder.duplicates == PSHOffsetTable.Duplicates.MERGE) {
+            //the same set of keys given with or without repeats finds the same table, a rejected repeat fails the check and the build throws
+            SpatialKeySet.removeDuplicates(keys, false);
+        }
+        Key key = new Key(keys, builder);
+        PSHOffsetTable table;
+        synchronized(this) {
+            table = tables.get(key);
+        }
+        if(table != null && fits(table, keys)) {
+            synchronized(this) {
+                hits++;
+            }
+            return table;
+        }
+        table = readSpilled(key);
+        if(table != null && fits(table, keys)) {
+            synchronized(this) {
+                spillHits++;
+                put(key, table);
+            }
+            return table;
+        }
+        table = builder.build(keys);
+        synchronized(this) {
+            misses++;
+            put(key, table);
+        }
+        return table;
+    }
+
+    public synchronized int size() {
+        return tables.size();
+    }
+    //bytes of the offset tables held in memory
+    public synchronized long bytes() {
+        return bytes;
+    }
+    public synchronized long hits() {
+        return hits;
+    }
+    //misses in memory that were read back from the spill directory
+    public synchronized long spillHits() {
+        return spillHits;
+    }
+    public synchronized long misses() {
+        return misses;
+    }
+
+    //drops every table and deletes the spilled ones
+    public synchronized void clear() throws IOException {
+        tables.clear();
+        bytes = 0;
+        if(spillDirectory != null && Files.isDirectory(spillDirectory)) {
+            try(DirectoryStream<Path> files = Files.newDirectoryStream(spillDirectory, "*" + spillSuffix)) {
+                for(Path file : files) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return tables.size() + " tables, " + bytes + " of " + maxBytes + " bytes, " + hits + " hits, " + spillHits + " spill hits, " + misses + " misses";
+    }
+
+    //true if table gives every one of keys a slot of its own, then it is a perfect hash for them whatever it was built from
+    private static boolean fits(PSHOffsetTable table, PackedKeys keys) {
+        if(table.n != keys.size) {
+            return false;
+        }
+        SlotBitSet used = new SlotBitSet(table.hashTableSize());
+        int[] xyz = keys.coordinates;
+        for(int k = 0; k < 3 * keys.size; k += 3) {
+            int slot = table.hash(xyz[k], xyz[k + 1], xyz[k + 2]);
+            if(used.get(slot)) {
+                return false;
+            }
+            used.set(slot);
+        }
+        return true;
+    }
+
+    private void put(Key key, PSHOffsetTable table) {
+        PSHOffsetTable old = tables.put(key, table);
+        if(old != null) {
+            bytes -= old.memoryBytes();
+        }
+        bytes += table.memoryBytes();
+        Iterator<Map.Entry<Key, PSHOffsetTable>> eldest = tables.entrySet().iterator();
+        while(bytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Key, PSHOffsetTable> entry = eldest.next();
+            spill(entry.getKey(), entry.getValue());
+            bytes -= entry.getValue().memoryBytes();
+            eldest.remove();
+        }
+    }
+
+    private void spill(Key key, PSHOffsetTable table) {
+        if(spillDirectory == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(spillDirectory);
+            PSHTableIO.write(table, spillFile(key));
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException("could not spill a table to " + spillDirectory, e);
+        }
+    }
+
+    private PSHOffsetTable readSpilled(Key key) {
+        if(spillDirectory == null) {
+            return null;
+        }
+        Path file = spillFile(key);
+        if(!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return PSHTableIO.read(file);
+        }
+        catch(IOException e) {
+            return null; //a damaged or foreign file is just a miss, the build writes over it when it spills
+        }
+    }
+
+    private Path spillFile(Key key) {
+        return spillDirectory.resolve(String.format("%016x%016x%s", key.sum, key.mixedSum ^ (long)key.hashCode() << 32, spillSuffix));
+    }
+
+    //what a table is cached under: the fingerprint of the keys and the builder settings that change the table
+    private static final class Key {
+        final long sum, mixedSum;
+        final int count;
+        final PSHSizingPolicy sizing;
+        final PSHSlotLayout slotLayout;
+        final boolean seeded;
+        final long seed;
+        final long autoTuneBudget;
+
+        Key(PackedKeys keys, PSHOffsetTable.Builder builder) {
+            long sum = 0, mixedSum = 0;
+            int[] xyz = keys.coordinates;
+            for(int k = 0; k < 3 * keys.size; k += 3) {
+                long h = mix(mix(mix(xyz[k]) + xyz[k + 1]) + xyz[k + 2]);
+                //sums don't depend on the order of the keys, two different ones make a chance collision far less likely
+                sum += h;
+                mixedSum += mix(h);
+            }
+            this.sum = sum;
+            this.mixedSum = mixedSum;
+            count = keys.size;
+            sizing = builder.sizing;
+            slotLayout = builder.slotLayout;
+            seeded = builder.seeded;
+            //an unseeded build can return any table, so any seed it got is as good
+            seed = builder.seeded ? builder.seed : 0;
+            autoTuneBudget = builder.autoTuneBudget;
+        }
+
+        //the splitmix64 finalizer
+        private static long mix(long h) {
+            h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+            h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+            return h ^ (h >>> 31);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)o;
+            return sum == k.sum && mixedSum == k.mixedSum && count == k.count && sizing.equals(k.sizing) && slotLayout == k.slotLayout
+                    && seeded == k.seeded && seed == k.seed && autoTuneBudget == k.autoTuneBudget;
+        }
+        @Override
+        public int hashCode() {
+            int h = Long.hashCode(sum);
+            h = 31 * h + Long.hashCode(mixedSum);
+            h = 31 * h + count;
+            h = 31 * h + sizing.hashCode();
+            h = 31 * h + slotLayout.code;
+            h = 31 * h + Long.hashCode(seed);
+            return 31 * h + Long.hashCode(autoTuneBudget);
+        }
+    }
+}
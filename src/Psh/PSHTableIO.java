@@ -0,0 +1,250 @@
+package Psh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves a built PSHOffsetTable, optionally with a value per hash table slot, to a compact binary file, and loads it back.
+ * Use MappedPSHTable to do lookups straight from the file without loading it onto the heap.
+ *
+ * File layout, little endian:
+ *  header (32 bytes): magic "PSHT", version 1, hashTableWidth, offsetTableWidth, element count, bytes per offset component,
+ *                     value type (0 none, 1 int, 2 float, 3 long), reserved
+ *  offsets:           offsetTableWidth^3 x,y,z triples in the order of PSHOffsetTable.offsetComponent(), each component reduced
+ *                     mod hashTableWidth (which hashes the same) so it fits in 1, 2 or 4 unsigned bytes, padded to 8 bytes
+ *  values:            hashTableWidth^3 values indexed by hash(x, y, z), only if the value type isn't 0
+ *
+ * Tables that aren't cubes (see PSHSizingPolicy.fitBounds) or don't use the ROW_MAJOR slot layout are written as version 2,
+ * which has a 48 byte header with the widths of each axis: magic, version 2, hashTableDims x,y,z, offsetTableDims x,y,z,
+ * element count, bytes per offset component, value type, slot layout (0 row major, 1 brick, 2 Morton). The offset table then
+ * holds the product of its widths and the values are indexed by hash(x, y, z) in the slot layout. Both versions are read.
+ */
+public final class PSHTableIO {
+
+    static final int magic = 0x54485350; //"PSHT" when read as little endian bytes
+    static final int version = 1;
+    static final int headerBytes = 32;
+    static final int dimsVersion = 2;
+    static final int dimsHeaderBytes = 48;
+
+    static final int noValues = 0;
+    static final int intValues = 1;
+    static final int floatValues = 2;
+    static final int longValues = 3;
+
+    private PSHTableIO() {}
+
+    public static void write(PSHOffsetTable table, Path file) throws IOException {
+        write(table, noValues, null, 0, file);
+    }
+    public static void write(PSHOffsetTable table, int[] values, Path file) throws IOException {
+        write(table, intValues, values, values.length, file);
+    }
+    public static void write(PSHOffsetTable table, float[] values, Path file) throws IOException {
+        write(table, floatValues, values, values.length, file);
+    }
+    public static void write(PSHOffsetTable table, long[] values, Path file) throws IOException {
+        write(table, longValues, values, values.length, file);
+    }
+
+    public static PSHOffsetTable read(Path file) throws IOException {
+        ByteBuffer buffer = readAll(file);
+        Header header = new Header(buffer);
+        int[] offsets = new int[3 * header.offsetTableSize()];
+        for(int i = 0; i < offsets.length; i++) {
+            offsets[i] = header.offsetComponent(buffer, i);
+        }
+        return new PSHOffsetTable(header.hashTableDims, header.offsetTableDims, offsets, header.elementCount, header.slotLayout);
+    }
+
+    public static int[] readIntValues(Path file) throws IOException {
+        ByteBuffer buffer = readAll(file);
+        Header header = new Header(buffer).expectValues(intValues);
+        int[] values = new int[header.hashTableSize()];
+        buffer.position((int)header.valuesStart());
+        buffer.asIntBuffer().get(values);
+        return values;
+    }
+    public static float[] readFloatValues(Path file) throws IOException {
+        ByteBuffer buffer = readAll(file);
+        Header header = new Header(buffer).expectValues(floatValues);
+        float[] values = new float[header.hashTableSize()];
+        buffer.position((int)header.valuesStart());
+        buffer.asFloatBuffer().get(values);
+        return values;
+    }
+    public static long[] readLongValues(Path file) throws IOException {
+        ByteBuffer buffer = readAll(file);
+        Header header = new Header(buffer).expectValues(longValues);
+        long[] values = new long[header.hashTableSize()];
+        buffer.position((int)header.valuesStart());
+        buffer.asLongBuffer().get(values);
+        return values;
+    }
+
+    private static void write(PSHOffsetTable table, int valueType, Object values, int valueCount, Path file) throws IOException {
+        int hashTableSize = table.hashTableSize();
+        if(values != null && valueCount != hashTableSize) {
+            throw new IllegalArgumentException("expected one value per hash table slot (" + hashTableSize + ") but got " + valueCount);
+        }
+        Header header = new Header(table.hashTableDims, table.offsetTableDims, table.n, offsetBytesFor(table.hashTableWidth), valueType, table.getSlotLayout());
+        long total = header.fileSize();
+        if(total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("table is too big for one file, " + total + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int)total).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(buffer);
+        BufferLookup.putOffsets(buffer, table, header.offsetBytes);
+        buffer.position((int)header.valuesStart());
+        switch(valueType) {
+            case intValues: buffer.asIntBuffer().put((int[])values); break;
+            case floatValues: buffer.asFloatBuffer().put((float[])values); break;
+            case longValues: buffer.asLongBuffer().put((long[])values); break;
+        }
+        buffer.position(0);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static ByteBuffer readAll(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too big to be a table file");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int)channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer) < 0) {
+                    throw new IOException("unexpected end of " + file);
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    //smallest unsigned width that holds an offset component in [0, hashTableWidth)
+    static int offsetBytesFor(int hashTableWidth) {
+        if(hashTableWidth <= 1 << 8) return 1;
+        if(hashTableWidth <= 1 << 16) return 2;
+        return 4;
+    }
+
+    static final class Header {
+        final Vec3I hashTableDims;
+        final Vec3I offsetTableDims;
+        final int elementCount;
+        final int offsetBytes;
+        final int valueType;
+        final PSHSlotLayout slotLayout;
+        //version 1 for cubic row major tables so they stay readable by older code, version 2 otherwise
+        final int version;
+        final int offsetsStart;
+
+        Header(Vec3I hashTableDims, Vec3I offsetTableDims, int elementCount, int offsetBytes, int valueType, PSHSlotLayout slotLayout) {
+            this.hashTableDims = new Vec3I(hashTableDims);
+            this.offsetTableDims = new Vec3I(offsetTableDims);
+            this.elementCount = elementCount;
+            this.offsetBytes = offsetBytes;
+            this.valueType = valueType;
+            this.slotLayout = slotLayout;
+            version = isCube(hashTableDims) && isCube(offsetTableDims) && slotLayout == PSHSlotLayout.ROW_MAJOR ? PSHTableIO.version : dimsVersion;
+            offsetsStart = version == PSHTableIO.version ? headerBytes : dimsHeaderBytes;
+        }
+
+        //reads and checks the header at the start of buffer, which has to be little endian
+        Header(ByteBuffer buffer) throws IOException {
+            if(buffer.limit() < headerBytes || buffer.getInt(0) != magic) {
+                throw new IOException("not a perfect spatial hash table file");
+            }
+            version = buffer.getInt(4);
+            int fields;
+            if(version == PSHTableIO.version) {
+                hashTableDims = new Vec3I(buffer.getInt(8));
+                offsetTableDims = new Vec3I(buffer.getInt(12));
+                fields = 16;
+                offsetsStart = headerBytes;
+            }
+            else if(version == dimsVersion && buffer.limit() >= dimsHeaderBytes) {
+                hashTableDims = new Vec3I(buffer.getInt(8), buffer.getInt(12), buffer.getInt(16));
+                offsetTableDims = new Vec3I(buffer.getInt(20), buffer.getInt(24), buffer.getInt(28));
+                fields = 32;
+                offsetsStart = dimsHeaderBytes;
+            }
+            else {
+                throw new IOException("unsupported table file version " + version + ", expected " + PSHTableIO.version + " or " + dimsVersion);
+            }
+            elementCount = buffer.getInt(fields);
+            offsetBytes = buffer.getInt(fields + 4);
+            valueType = buffer.getInt(fields + 8);
+            //the reserved field of version 1 is always 0, row major
+            slotLayout = version == PSHTableIO.version ? PSHSlotLayout.ROW_MAJOR : PSHSlotLayout.ofCode(buffer.getInt(fields + 12));
+            if(slotLayout == null || !isPositive(hashTableDims) || !isPositive(offsetTableDims) || (offsetBytes != 1 && offsetBytes != 2 && offsetBytes != 4)
+                    || valueType < noValues || valueType > longValues) {
+                throw new IOException("corrupt table file header");
+            }
+            if(buffer.limit() < fileSize()) {
+                throw new IOException("table file is truncated, expected " + fileSize() + " bytes but got " + buffer.limit());
+            }
+        }
+
+        void put(ByteBuffer buffer) {
+            buffer.putInt(magic).putInt(version);
+            if(version == PSHTableIO.version) {
+                buffer.putInt(hashTableDims.x).putInt(offsetTableDims.x);
+            }
+            else {
+                buffer.putInt(hashTableDims.x).putInt(hashTableDims.y).putInt(hashTableDims.z)
+                      .putInt(offsetTableDims.x).putInt(offsetTableDims.y).putInt(offsetTableDims.z);
+            }
+            buffer.putInt(elementCount).putInt(offsetBytes).putInt(valueType).putInt(slotLayout.code);
+        }
+
+        Header expectValues(int type) throws IOException {
+            if(valueType != type) {
+                throw new IOException("table file holds value type " + valueType + ", not " + type);
+            }
+            return this;
+        }
+
+        int offsetTableSize() {
+            return offsetTableDims.x * offsetTableDims.y * offsetTableDims.z;
+        }
+        //values in the file, one per slot of the slot layout
+        int hashTableSize() {
+            return (int)slotLayout.size(hashTableDims);
+        }
+        int valueBytes() {
+            return valueType == noValues ? 0 : valueType == longValues ? 8 : 4;
+        }
+        long valuesStart() {
+            long end = offsetsStart + 3L * offsetTableSize() * offsetBytes;
+            return (end + 7) & ~7L;
+        }
+        long fileSize() {
+            return valuesStart() + (long)hashTableSize() * valueBytes();
+        }
+
+        //offset component i (x,y,z interleaved) of a buffer laid out by this header
+        int offsetComponent(ByteBuffer buffer, int i) {
+            switch(offsetBytes) {
+                case 1: return buffer.get(offsetsStart + i) & 0xFF;
+                case 2: return buffer.getChar(offsetsStart + 2 * i);
+                default: return buffer.getInt(offsetsStart + 4 * i);
+            }
+        }
+
+        private static boolean isCube(Vec3I dims) {
+            return dims.x == dims.y && dims.y == dims.z;
+        }
+        private static boolean isPositive(Vec3I dims) {
+            return dims.x >= 1 && dims.y >= 1 && dims.z >= 1;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package Psh;
+
+/**
+ * What an incremental PSHOffsetTable.insert() or remove() did to the hash table, so values kept in a flat array can be patched.
+ * If rebuilt is true the table was rebuilt from scratch, possibly with new widths, and every key has to be hashed again.
+ * Otherwise keys[i] moved from oldSlots[i] to newSlots[i] and no other key changed slot.
+ * A slot of -1 means the key was not in the table before (inserted) or after (removed) the edit.
+ */
+public class PSHUpdateResult {
+
+    static final PSHUpdateResult UNCHANGED = new PSHUpdateResult(false, new Vec3I[0], new int[0], new int[0]);
+    static final PSHUpdateResult REBUILT = new PSHUpdateResult(true, new Vec3I[0], new int[0], new int[0]);
+
+    public final boolean rebuilt;
+    public final Vec3I[] keys;
+    public final int[] oldSlots;
+    public final int[] newSlots;
+
+    PSHUpdateResult(boolean rebuilt, Vec3I[] keys, int[] oldSlots, int[] newSlots) {
+        this.rebuilt = rebuilt;
+        this.keys = keys;
+        this.oldSlots = oldSlots;
+        this.newSlots = newSlots;
+    }
+
+    public int movedCount() {
+        return keys.length;
+    }
+}
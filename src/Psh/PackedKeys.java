@@ -0,0 +1,89 @@
+package Psh;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A growable list of keys packed dimension ints a key in one int array, for 3D keys 12 bytes a key instead of a Vec3I object each.
+ * This is what the tables are built from, see PSHOffsetTable.Builder for the ways to fill it.
+ */
+final class PackedKeys {
+
+    final int dimension;
+    int[] coordinates;
+    int size;
+
+    PackedKeys() {
+        this(16);
+    }
+
+    PackedKeys(int capacity) {
+        this(3, capacity);
+    }
+
+    PackedKeys(int dimension, int capacity) {
+        this.dimension = dimension;
+        coordinates = new int[dimension * Math.max(capacity, 1)];
+    }
+
+    static PackedKeys of(List<Vec3I> keys) {
+        PackedKeys packed = new PackedKeys(keys.size());
+        for(int i = 0; i < keys.size(); i++) {
+            Vec3I key = keys.get(i);
+            packed.add(key.x, key.y, key.z);
+        }
+        return packed;
+    }
+
+    void add(int x, int y, int z) {
+        int k = 3 * size;
+        if(k + 3 > coordinates.length) {
+            grow(size + 1);
+        }
+        coordinates[k] = x;
+        coordinates[k + 1] = y;
+        coordinates[k + 2] = z;
+        size++;
+    }
+
+    //adds count keys packed dimension ints each in source starting at source[from]
+    void add(int[] source, int from, int count) {
+        ensureCapacity(size + count);
+        System.arraycopy(source, from, coordinates, dimension * size, dimension * count);
+        size += count;
+    }
+
+    void ensureCapacity(int keys) {
+        if((long)dimension * keys > coordinates.length) {
+            grow(keys);
+        }
+    }
+
+    private void grow(int keys) {
+        long capacity = Math.max((long)dimension * keys, (long)coordinates.length + (coordinates.length >> 1));
+        if(capacity > Integer.MAX_VALUE - 8) {
+            if((long)dimension * keys > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("too many keys for one table: " + keys);
+            }
+            capacity = Integer.MAX_VALUE - 8;
+        }
+        capacity -= capacity % dimension;
+        coordinates = Arrays.copyOf(coordinates, (int)capacity);
+    }
+
+    PackedKeys copy() {
+        PackedKeys copy = new PackedKeys(dimension, size);
+        copy.add(coordinates, 0, size);
+        return copy;
+    }
+
+    int x(int i) {
+        return coordinates[3 * i];
+    }
+    int y(int i) {
+        return coordinates[3 * i + 1];
+    }
+    int z(int i) {
+        return coordinates[3 * i + 2];
+    }
+}
@@ -0,0 +1,72 @@
+package Psh;
+
+import java.util.Arrays;
+
+/**
+ * The components of an offset table, each reduced mod the hash table width of its axis and stored in the smallest unsigned
+ * width that holds the widest axis - 1: a byte up to a width of 256, a char up to 65536, an int above that.
+ * Reducing an offset mod the hash table width doesn't change any hash, so this is only a smaller way to store the same table.
+ * Component i belongs to axis i % hashTableDims.length.
+ */
+final class PackedOffsets {
+
+    final int[] hashTableDims;
+    final int bytes;
+    final int length;
+    private final byte[] bytes8;
+    private final char[] bytes16;
+    private final int[] bytes32;
+
+    PackedOffsets(int length, Vec3I hashTableDims) {
+        this(length, new int[] {hashTableDims.x, hashTableDims.y, hashTableDims.z});
+    }
+
+    PackedOffsets(int length, int[] hashTableDims) {
+        this.length = length;
+        this.hashTableDims = hashTableDims.clone();
+        int widest = 0;
+        for(int width : hashTableDims) {
+            widest = Math.max(widest, width);
+        }
+        bytes = PSHTableIO.offsetBytesFor(widest);
+        bytes8 = bytes == 1 ? new byte[length] : null;
+        bytes16 = bytes == 2 ? new char[length] : null;
+        bytes32 = bytes == 4 ? new int[length] : null;
+    }
+
+    //component i, in [0, width of its axis)
+    int get(int i) {
+        switch(bytes) {
+            case 1: return bytes8[i] & 0xFF;
+            case 2: return bytes16[i];
+            default: return bytes32[i];
+        }
+    }
+
+    //stores any offset component, reduced mod the hash table width of its axis
+    void set(int i, int component) {
+        component = MathGeneral.mod(component, hashTableDims[i % hashTableDims.length]);
+        switch(bytes) {
+            case 1: bytes8[i] = (byte)component; break;
+            case 2: bytes16[i] = (char)component; break;
+            default: bytes32[i] = component;
+        }
+    }
+
+    boolean hasHashTableDims(int[] dims) {
+        return Arrays.equals(hashTableDims, dims);
+    }
+
+    //the same offsets stored for other hash table widths
+    PackedOffsets withHashTableDims(int[] dims) {
+        PackedOffsets packed = new PackedOffsets(length, dims);
+        for(int i = 0; i < length; i++) {
+            packed.set(i, get(i));
+        }
+        return packed;
+    }
+
+    long memoryBytes() {
+        return (long)length * bytes;
+    }
+}
@@ -0,0 +1,84 @@
+package Psh;
+
+import java.util.ArrayList;
+
+/**
+ * PerfectSpatialHashMap with unboxed long values stored in one flat array indexed by hash table slot.
+ */
+public class PerfectSpatialHashLongMap {
+
+    public interface EntryConsumer {
+        void accept(int x, int y, int z, long value);
+    }
+
+    private final SpatialKeySlots slots;
+    private final long[] values;
+
+    //values[i] is paired with keys.get(i)
+    public PerfectSpatialHashLongMap(ArrayList<Vec3I> keys, long[] values) {
+        if(keys.size() != values.length) {
+            throw new IllegalArgumentException("got " + keys.size() + " keys but " + values.length + " values");
+        }
+        slots = new SpatialKeySlots(keys);
+        this.values = new long[slots.table.hashTableSize()];
+        for(int i = 0; i < keys.size(); i++) {
+            Vec3I key = keys.get(i);
+            this.values[slots.table.hash(key.x, key.y, key.z)] = values[i];
+        }
+    }
+
+    //returns 0L if the key is not in the map
+    public long get(int x, int y, int z) {
+        return getOrDefault(x, y, z, 0L);
+    }
+    public long get(Vec3I key) {
+        return getOrDefault(key.x, key.y, key.z, 0L);
+    }
+    public long getOrDefault(int x, int y, int z, long defaultValue) {
+        int slot = slots.slot(x, y, z);
+        return slot < 0 ? defaultValue : values[slot];
+    }
+
+    //Values of the stencil's neighbours of (x,y,z): values[i] for neighbour i, defaultValue for neighbours that aren't keys.
+    //neighborhood.present tells which are, the number of them is returned. Nothing is allocated.
+    public int getNeighbors(int x, int y, int z, PSHNeighborhood neighborhood, long[] values, long defaultValue) {
+        int count = slots.neighbors(x, y, z, neighborhood);
+        int[] neighborSlots = neighborhood.slots;
+        for(int i = 0; i < neighborhood.stencil.size; i++) {
+            int slot = neighborSlots[i];
+            values[i] = slot < 0 ? defaultValue : this.values[slot];
+        }
+        return count;
+    }
+
+    public boolean containsKey(int x, int y, int z) {
+        return slots.slot(x, y, z) >= 0;
+    }
+    public boolean containsKey(Vec3I key) {
+        return containsKey(key.x, key.y, key.z);
+    }
+
+    //replaces the value of a key that is already in the map, returns false if the key is not in the map
+    public boolean put(int x, int y, int z, long value) {
+        int slot = slots.slot(x, y, z);
+        if(slot < 0) {
+            return false;
+        }
+        values[slot] = value;
+        return true;
+    }
+
+    //visits the entries in hash table order
+    public void forEach(EntryConsumer consumer) {
+        int[] keys = slots.keys;
+        slots.forEachSlot(slot -> consumer.accept(keys[3 * slot], keys[3 * slot + 1], keys[3 * slot + 2], values[slot]));
+    }
+
+    public int size() {
+        return slots.size;
+    }
+
+    public PSHOffsetTable getTable() {
+        return slots.table;
+    }
+}
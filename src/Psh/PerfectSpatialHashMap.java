@@ -0,0 +1,87 @@
+package Psh;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-mostly map from 3D indices to values built on a PSHOffsetTable.
+ * The key set is fixed at construction, values of existing keys can be replaced with put().
+ * A lookup costs the two reads from the paper, one into the offset table and one into the hash table, plus a key check.
+ * See PerfectSpatialHashIntMap, PerfectSpatialHashFloatMap and PerfectSpatialHashLongMap for unboxed values.
+ */
+public class PerfectSpatialHashMap<V> {
+
+    public interface EntryConsumer<V> {
+        void accept(int x, int y, int z, V value);
+    }
+
+    private final SpatialKeySlots slots;
+    private final Object[] values;
+
+    //values.get(i) is paired with keys.get(i)
+    public PerfectSpatialHashMap(ArrayList<Vec3I> keys, List<V> values) {
+        if(keys.size() != values.size()) {
+            throw new IllegalArgumentException("got " + keys.size() + " keys but " + values.size() + " values");
+        }
+        slots = new SpatialKeySlots(keys);
+        this.values = new Object[slots.table.hashTableSize()];
+        for(int i = 0; i < keys.size(); i++) {
+            Vec3I key = keys.get(i);
+            this.values[slots.table.hash(key.x, key.y, key.z)] = values.get(i);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int x, int y, int z) {
+        int slot = slots.slot(x, y, z);
+        return slot < 0 ? null : (V)values[slot];
+    }
+    public V get(Vec3I key) {
+        return get(key.x, key.y, key.z);
+    }
+
+    //Values of the stencil's neighbours of (x,y,z): values[i] for neighbour i, null for neighbours that aren't keys.
+    //neighborhood.present tells which are, the number of them is returned. Nothing is allocated.
+    @SuppressWarnings("unchecked")
+    public int getNeighbors(int x, int y, int z, PSHNeighborhood neighborhood, V[] values) {
+        int count = slots.neighbors(x, y, z, neighborhood);
+        int[] neighborSlots = neighborhood.slots;
+        for(int i = 0; i < neighborhood.stencil.size; i++) {
+            int slot = neighborSlots[i];
+            values[i] = slot < 0 ? null : (V)this.values[slot];
+        }
+        return count;
+    }
+
+    public boolean containsKey(int x, int y, int z) {
+        return slots.slot(x, y, z) >= 0;
+    }
+    public boolean containsKey(Vec3I key) {
+        return containsKey(key.x, key.y, key.z);
+    }
+
+    //replaces the value of a key that is already in the map, returns false if the key is not in the map
+    public boolean put(int x, int y, int z, V value) {
+        int slot = slots.slot(x, y, z);
+        if(slot < 0) {
+            return false;
+        }
+        values[slot] = value;
+        return true;
+    }
+
+    //visits the entries in hash table order
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> consumer) {
+        int[] keys = slots.keys;
+        slots.forEachSlot(slot -> consumer.accept(keys[3 * slot], keys[3 * slot + 1], keys[3 * slot + 2], (V)values[slot]));
+    }
+
+    public int size() {
+        return slots.size;
+    }
+
+    public PSHOffsetTable getTable() {
+        return slots.table;
+    }
+}
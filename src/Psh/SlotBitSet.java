@@ -0,0 +1,66 @@
+package Psh;
+
+import java.util.Arrays;
+
+/**
+ * One bit per hash table slot, packed 64 to a long and indexed by the linear slot from PSHOffsetTable.hash(x, y, z).
+ */
+final class SlotBitSet {
+
+    final long[] words;
+    final int size;
+
+    SlotBitSet(int size) {
+        this.size = size;
+        words = new long[(size + 63) >>> 6];
+    }
+
+    boolean get(int i) {
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    void set(int i) {
+        words[i >>> 6] |= 1L << i;
+    }
+
+    void clear(int i) {
+        words[i >>> 6] &= ~(1L << i);
+    }
+
+    void clearAll() {
+        Arrays.fill(words, 0L);
+    }
+
+    //first clear bit at or after from, -1 if there is none before size
+    int nextClear(int from) {
+        if(from >= size) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long bits = ~words[w] & (-1L << from);
+        while(bits == 0) {
+            if(++w == words.length) {
+                return -1;
+            }
+            bits = ~words[w];
+        }
+        int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+        return i < size ? i : -1;
+    }
+
+    //first set bit at or after from, -1 if there is none
+    int nextSet(int from) {
+        if(from >= size) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long bits = words[w] & (-1L << from);
+        while(bits == 0) {
+            if(++w == words.length) {
+                return -1;
+            }
+            bits = words[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+}
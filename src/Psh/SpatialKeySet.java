@@ -0,0 +1,169 @@
+package Psh;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of 3D keys without an object per key: the keys are packed as x,y,z triples in insertion order and found again
+ * through an open addressing table of their positions. Adding and looking up a key is O(1), so deduplicating n keys is O(n)
+ * instead of the O(n^2) of ArrayList.contains(). Keys can be anywhere in the int range, they are not packed into a long.
+ *
+ *  SpatialKeySet set = new SpatialKeySet();
+ *  if(set.add(x, y, z)) { first time (x,y,z) is seen }
+ *  ArrayList<Vec3I> distinct = set.toList();
+ */
+public final class SpatialKeySet {
+
+    private static final float maxLoad = 0.5f;
+
+    private final PackedKeys keys;
+    private int[] table; //position + 1 of the key in keys, 0 for an empty entry
+    private int mask;
+
+    public SpatialKeySet() {
+        this(16);
+    }
+
+    public SpatialKeySet(int expectedSize) {
+        this(new PackedKeys(expectedSize), expectedSize);
+    }
+
+    //a set that keeps its keys in storage, which has to be empty or be compacted into as in removeDuplicates()
+    private SpatialKeySet(PackedKeys storage, int expectedSize) {
+        keys = storage;
+        int capacity = Integer.highestOneBit(Math.max(16, (int)Math.min(1 << 30, (long)(expectedSize / maxLoad) + 1)) - 1) << 1;
+        table = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public static ArrayList<Vec3I> distinct(List<Vec3I> keys) {
+        SpatialKeySet set = new SpatialKeySet(keys.size());
+        for(int i = 0; i < keys.size(); i++) {
+            set.add(keys.get(i));
+        }
+        return set.toList();
+    }
+
+    //adds (x,y,z), returns false if it was in the set already
+    public boolean add(int x, int y, int z) {
+        writeBehindLast(x, y, z);
+        return addBehindLast();
+    }
+    public boolean add(Vec3I key) {
+        return add(key.x, key.y, key.z);
+    }
+
+    public boolean contains(int x, int y, int z) {
+        return table[indexOf(new int[] {x, y, z}, 0)] != 0;
+    }
+    public boolean contains(Vec3I key) {
+        return contains(key.x, key.y, key.z);
+    }
+
+    public int size() {
+        return keys.size;
+    }
+
+    //the keys in the order they were first added
+    public ArrayList<Vec3I> toList() {
+        ArrayList<Vec3I> list = new ArrayList<>(keys.size);
+        for(int i = 0; i < keys.size; i++) {
+            list.add(new Vec3I(keys.x(i), keys.y(i), keys.z(i)));
+        }
+        return list;
+    }
+
+    //Removes repeated keys from keys in place, keeping the first of each, and returns how many were removed. Works for keys
+    //of any dimension. With reject set the first repeated key throws an IllegalArgumentException instead.
+    static int removeDuplicates(PackedKeys keys, boolean reject) {
+        int count = keys.size;
+        int d = keys.dimension;
+        int[] coordinates = keys.coordinates;
+        //the set writes key i at a position at or below i, so it can compact keys while reading them
+        keys.size = 0;
+        SpatialKeySet set = new SpatialKeySet(keys, count);
+        for(int i = 0; i < count; i++) {
+            System.arraycopy(coordinates, d * i, coordinates, d * keys.size, d);
+            if(!set.addBehindLast() && reject) {
+                //nothing was compacted before the first repeated key, so keys are as they were given
+                keys.size = count;
+                StringBuilder key = new StringBuilder("duplicate key (");
+                for(int a = 0; a < d; a++) {
+                    key.append(a == 0 ? "" : ", ").append(coordinates[d * i + a]);
+                }
+                throw new IllegalArgumentException(key.append(')').toString());
+            }
+        }
+        return count - keys.size;
+    }
+
+    //writes (x,y,z) right behind the last key of the set, where addBehindLast() looks for it
+    private void writeBehindLast(int x, int y, int z) {
+        keys.ensureCapacity(keys.size + 1);
+        int k = 3 * keys.size;
+        keys.coordinates[k] = x;
+        keys.coordinates[k + 1] = y;
+        keys.coordinates[k + 2] = z;
+    }
+    //keeps the key right behind the last key of the set unless it is in the set already, false if it is
+    private boolean addBehindLast() {
+        int i = indexOf(keys.coordinates, keys.dimension * keys.size);
+        if(table[i] != 0) {
+            return false;
+        }
+        table[i] = ++keys.size;
+        if(keys.size > maxLoad * table.length) {
+            grow();
+        }
+        return true;
+    }
+
+    //entry holding the key at key[k], or the empty entry where it would go
+    private int indexOf(int[] key, int k) {
+        int[] coordinates = keys.coordinates;
+        int d = keys.dimension;
+        probe:
+        for(int i = mix(key, k, d) & mask; ; i = (i + 1) & mask) {
+            int entry = table[i];
+            if(entry == 0) {
+                return i;
+            }
+            for(int a = 0, j = d * (entry - 1); a < d; a++, j++) {
+                if(coordinates[j] != key[k + a]) {
+                    continue probe;
+                }
+            }
+            return i;
+        }
+    }
+
+    private void grow() {
+        int[] old = table;
+        table = new int[old.length << 1];
+        mask = table.length - 1;
+        int[] coordinates = keys.coordinates;
+        int d = keys.dimension;
+        for(int entry : old) {
+            if(entry != 0) {
+                int i = mix(coordinates, d * (entry - 1), d) & mask;
+                while(table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = entry;
+            }
+        }
+    }
+
+    //spreads neighbouring keys over the whole table, murmur3's finalizer over a combination of the coordinates
+    private static int mix(int[] coordinates, int k, int dimension) {
+        int h = 0;
+        for(int a = 0; a < dimension; a++) {
+            h = (h + coordinates[k + a]) * 0x9E3779B1;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+}
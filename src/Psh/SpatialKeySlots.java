@@ -0,0 +1,88 @@
+package Psh;
+
+import java.util.ArrayList;
+
+/**
+ * Key verification shared by the PerfectSpatialHash maps.
+ * Remembers which key owns each slot of a PSHOffsetTable so a lookup can tell a stored key from one that only hashes to the same slot.
+ */
+final class SpatialKeySlots {
+
+    interface SlotVisitor {
+        void visit(int slot);
+    }
+
+    final PSHOffsetTable table;
+    final int[] keys; //x,y,z of the key owning each slot, 3 per slot
+    final SlotBitSet filled;
+    final int size;
+
+    SpatialKeySlots(ArrayList<Vec3I> elements) {
+        table = PSHOffsetTable.builder().duplicates(PSHOffsetTable.Duplicates.REJECT).build(elements);
+        int slots = table.hashTableSize();
+        keys = new int[3 * slots];
+        filled = new SlotBitSet(slots);
+        for(int i = 0; i < elements.size(); i++) {
+            Vec3I ele = elements.get(i);
+            int slot = table.hash(ele.x, ele.y, ele.z);
+            if(filled.get(slot)) {
+                if(matches(slot, ele.x, ele.y, ele.z)) {
+                    throw new IllegalArgumentException("duplicate key " + ele);
+                }
+                throw new IllegalStateException("hash collision between " + ele + " and " + keyAt(slot));
+            }
+            filled.set(slot);
+            keys[3 * slot] = ele.x;
+            keys[3 * slot + 1] = ele.y;
+            keys[3 * slot + 2] = ele.z;
+        }
+        size = elements.size();
+    }
+
+    //slot of the key or -1 if the key is not in the set
+    int slot(int x, int y, int z) {
+        int slot = table.hash(x, y, z);
+        if(filled.get(slot) && matches(slot, x, y, z)) {
+            return slot;
+        }
+        return -1;
+    }
+
+    //Slots of the stencil's neighbours of (x,y,z) that are keys, -1 for the others, presence bits in neighborhood.present.
+    //Returns the number of neighbours that are keys.
+    int neighbors(int x, int y, int z, PSHNeighborhood neighborhood) {
+        table.hashStencil(x, y, z, neighborhood);
+        PSHStencil stencil = neighborhood.stencil;
+        int[] slots = neighborhood.slots;
+        int[] deltas = stencil.deltas;
+        long present = 0;
+        for(int i = 0, k = 0; i < stencil.size; i++, k += 3) {
+            int slot = slots[i];
+            if(filled.get(slot) && matches(slot, x + deltas[k], y + deltas[k + 1], z + deltas[k + 2])) {
+                present |= 1L << i;
+            }
+            else {
+                slots[i] = -1;
+            }
+        }
+        neighborhood.present = present;
+        return Long.bitCount(present);
+    }
+
+    private boolean matches(int slot, int x, int y, int z) {
+        int k = 3 * slot;
+        return keys[k] == x && keys[k + 1] == y && keys[k + 2] == z;
+    }
+
+    Vec3I keyAt(int slot) {
+        int k = 3 * slot;
+        return new Vec3I(keys[k], keys[k + 1], keys[k + 2]);
+    }
+
+    //visits the filled slots in slot order, which keeps spatially close keys close together
+    void forEachSlot(SlotVisitor visitor) {
+        for(int slot = filled.nextSet(0); slot >= 0; slot = filled.nextSet(slot + 1)) {
+            visitor.visit(slot);
+        }
+    }
+}